@@ -0,0 +1,248 @@
+/*
+ * Copyright (c) 2015-2016, Parallel Universe Software Co. All rights reserved.
+ * 
+ * This program and the accompanying materials are license under the terms of the
+ * MIT license.
+ */
+package co.paralleluniverse.vtime;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the per-call overhead of the {@link Clock_} trampolines, compared with the JDK calls they replace.
+ * <p>
+ * The blocking entry points ({@code Thread_sleep}, {@code Object_wait}, {@code Condition_await[Nanos]}, {@code Unsafe_park},
+ * {@code LockSupport_park[Nanos|Until]}) are called so that they return immediately -- with a pending interrupt or a pending
+ * unpark permit -- so that what's measured is the dispatch and bookkeeping rather than the sleep itself.
+ * <p>
+ * Run with {@code ./gradlew jmh}; the task runs the benchmarks at 1, 2, 4, ... threads up to the number of cores
+ * (or {@code -PjmhThreads=N}).
+ *
+ * @author pron
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ClockBenchmark {
+    private static final sun.misc.Unsafe UNSAFE = UtilUnsafe.getUnsafe();
+
+    @State(Scope.Benchmark)
+    public static class ClockState {
+        @Param({"system", "scaled", "fixedEpoch", "manual", "coarse"})
+        public String clock;
+
+        @Param({"global", "thread", "inherited"})
+        public String install;
+
+        Clock instance;
+
+        // a new clock every iteration, because ManualClock keeps a waiter for every timed park/sleep/wait
+        @Setup(Level.Iteration)
+        public void setup() {
+            instance = newClock(clock);
+            VirtualClock.setGlobal("global".equals(install) ? instance : null);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            VirtualClock.setGlobal(null);
+        }
+
+        private static Clock newClock(String name) {
+            switch (name) {
+                case "system":
+                    return SystemClock.instance();
+                case "scaled":
+                    return new ScaledClock(0.5);
+                case "fixedEpoch":
+                    return new FixedEpochClock(0L);
+                case "manual":
+                    return new ManualClock();
+                case "coarse":
+                    return new CoarseClock(1, TimeUnit.MILLISECONDS);
+                default:
+                    throw new IllegalArgumentException("Unknown clock: " + name);
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadState {
+        final Object lock = new Object();
+        final ReentrantLock reentrantLock = new ReentrantLock();
+        final Condition condition = reentrantLock.newCondition();
+
+        @Setup(Level.Iteration)
+        public void setup(ClockState cs) {
+            VirtualClock.setForCurrentThread("thread".equals(cs.install) ? cs.instance : null);
+            VirtualClock.setForCurrentThreadAndChildren("inherited".equals(cs.install) ? cs.instance : null);
+        }
+
+        @TearDown(Level.Iteration)
+        public void tearDown() {
+            VirtualClock.setForCurrentThread(null);
+            VirtualClock.setForCurrentThreadAndChildren(null);
+            Thread.interrupted();
+        }
+    }
+
+    @Benchmark
+    public long baseline_nanoTime() {
+        return System.nanoTime();
+    }
+
+    @Benchmark
+    public long baseline_currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    @Benchmark
+    public Clock get(ClockState cs, ThreadState ts) {
+        return VirtualClock.get();
+    }
+
+    @Benchmark
+    public long System_nanoTime(ClockState cs, ThreadState ts) {
+        return Clock_.System_nanoTime();
+    }
+
+    @Benchmark
+    public long System_currentTimeMillis(ClockState cs, ThreadState ts) {
+        return Clock_.System_currentTimeMillis();
+    }
+
+    @Benchmark
+    public void Thread_sleep(ClockState cs, ThreadState ts) {
+        Thread.currentThread().interrupt();
+        try {
+            Clock_.Thread_sleep(1);
+        } catch (InterruptedException e) {
+        }
+    }
+
+    @Benchmark
+    public void Thread_sleep_nanos(ClockState cs, ThreadState ts) {
+        Thread.currentThread().interrupt();
+        try {
+            Clock_.Thread_sleep(0, 1);
+        } catch (InterruptedException e) {
+        }
+    }
+
+    @Benchmark
+    public void Object_wait(ClockState cs, ThreadState ts) {
+        synchronized (ts.lock) {
+            Thread.currentThread().interrupt();
+            try {
+                Clock_.Object_wait(ts.lock, 1);
+            } catch (InterruptedException e) {
+            }
+        }
+    }
+
+    @Benchmark
+    public void Object_wait_nanos(ClockState cs, ThreadState ts) {
+        synchronized (ts.lock) {
+            Thread.currentThread().interrupt();
+            try {
+                Clock_.Object_wait(ts.lock, 0, 1);
+            } catch (InterruptedException e) {
+            }
+        }
+    }
+
+    @Benchmark
+    public void Condition_awaitNanos(ClockState cs, ThreadState ts) {
+        ts.reentrantLock.lock();
+        try {
+            Thread.currentThread().interrupt();
+            Clock_.Condition_awaitNanos(ts.condition, TimeUnit.MILLISECONDS.toNanos(1));
+        } catch (InterruptedException e) {
+        } finally {
+            ts.reentrantLock.unlock();
+        }
+    }
+
+    @Benchmark
+    public void Condition_await(ClockState cs, ThreadState ts) {
+        ts.reentrantLock.lock();
+        try {
+            Thread.currentThread().interrupt();
+            Clock_.Condition_await(ts.condition, 1, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+        } finally {
+            ts.reentrantLock.unlock();
+        }
+    }
+
+    @Benchmark
+    public void Unsafe_park(ClockState cs, ThreadState ts) {
+        UNSAFE.unpark(Thread.currentThread());
+        Clock_.Unsafe_park(UNSAFE, false, TimeUnit.MILLISECONDS.toNanos(1));
+    }
+
+    @Benchmark
+    public void Unsafe_park_absolute(ClockState cs, ThreadState ts) {
+        UNSAFE.unpark(Thread.currentThread());
+        Clock_.Unsafe_park(UNSAFE, true, Clock_.System_currentTimeMillis() + 1);
+    }
+
+    @Benchmark
+    public void LockSupport_park(ClockState cs, ThreadState ts) {
+        LockSupport.unpark(Thread.currentThread());
+        Clock_.LockSupport_park();
+    }
+
+    @Benchmark
+    public void LockSupport_park_blocker(ClockState cs, ThreadState ts) {
+        LockSupport.unpark(Thread.currentThread());
+        Clock_.LockSupport_park(ts);
+    }
+
+    @Benchmark
+    public void LockSupport_unpark(ClockState cs, ThreadState ts) {
+        Clock_.LockSupport_unpark(Thread.currentThread());
+    }
+
+    @Benchmark
+    public void LockSupport_parkNanos(ClockState cs, ThreadState ts) {
+        LockSupport.unpark(Thread.currentThread());
+        Clock_.LockSupport_parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+    }
+
+    @Benchmark
+    public void LockSupport_parkNanos_blocker(ClockState cs, ThreadState ts) {
+        LockSupport.unpark(Thread.currentThread());
+        Clock_.LockSupport_parkNanos(ts, TimeUnit.MILLISECONDS.toNanos(1));
+    }
+
+    @Benchmark
+    public void LockSupport_parkUntil(ClockState cs, ThreadState ts) {
+        LockSupport.unpark(Thread.currentThread());
+        Clock_.LockSupport_parkUntil(Clock_.System_currentTimeMillis() + 1);
+    }
+
+    @Benchmark
+    public void LockSupport_parkUntil_blocker(ClockState cs, ThreadState ts) {
+        LockSupport.unpark(Thread.currentThread());
+        Clock_.LockSupport_parkUntil(ts, Clock_.System_currentTimeMillis() + 1);
+    }
+}
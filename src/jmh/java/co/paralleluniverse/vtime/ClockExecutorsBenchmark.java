@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) 2015-2016, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are license under the terms of the
+ * MIT license.
+ */
+package co.paralleluniverse.vtime;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures the cost of running a task captured by {@link ClockExecutors}, which puts its submitter's clock in effect
+ * around it, on a thread with its own clock.
+ * <p>
+ * Run with {@code ./gradlew jmh -PjmhInclude=ClockExecutorsBenchmark -PjmhArgs='-prof gc'} to see the allocation
+ * rate: {@code gc.alloc.rate.norm} should be 0 bytes per operation.
+ *
+ * @author pron
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ClockExecutorsBenchmark {
+    private Runnable captured;
+    private Blackhole bh;
+
+    @Setup(Level.Iteration)
+    public void setup(Blackhole bh) {
+        this.bh = bh;
+        VirtualClock.setForCurrentThread(new ManualClock(1000));
+        captured = ClockExecutors.capture(new Runnable() {
+            @Override
+            public void run() {
+                ClockExecutorsBenchmark.this.bh.consume(Clock_.System_nanoTime());
+            }
+        });
+        VirtualClock.setForCurrentThread(new ManualClock(2000));
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        VirtualClock.setForCurrentThread(null);
+    }
+
+    @Benchmark
+    public void baseline() {
+        bh.consume(Clock_.System_nanoTime());
+    }
+
+    @Benchmark
+    public void captured() {
+        captured.run();
+    }
+}
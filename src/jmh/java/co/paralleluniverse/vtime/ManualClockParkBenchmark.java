@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2015-2016, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are license under the terms of the
+ * MIT license.
+ */
+package co.paralleluniverse.vtime;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures a timed park under a {@link ManualClock}, both when the thread is unparked before its deadline, and when
+ * it is woken by the clock reaching its deadline (in auto-advance mode, so no other thread is needed).
+ * <p>
+ * Run with {@code ./gradlew jmh -PjmhInclude=ManualClockParkBenchmark -PjmhArgs='-prof gc'} to see the allocation
+ * rate: with the {@code TIMING_WHEEL} store, {@code gc.alloc.rate.norm} should be 0 bytes per operation.
+ *
+ * @author pron
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(1)
+@State(Scope.Thread)
+public class ManualClockParkBenchmark {
+    private static final sun.misc.Unsafe UNSAFE = UtilUnsafe.getUnsafe();
+    private static final long TIMEOUT = TimeUnit.MILLISECONDS.toNanos(10);
+
+    @Param({"SKIP_LIST", "TIMING_WHEEL"})
+    public ManualClock.WaiterStore store;
+
+    private ManualClock clock;
+    private ManualClock autoClock;
+
+    @Setup(Level.Iteration)
+    public void setup() {
+        clock = new ManualClock(0, store);
+        autoClock = new ManualClock(0, store);
+        autoClock.register(Thread.currentThread());
+        autoClock.setAutoAdvance(true);
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        autoClock.unregister(Thread.currentThread());
+    }
+
+    @Benchmark
+    public void park_unparked() {
+        UNSAFE.unpark(Thread.currentThread());
+        clock.Unsafe_park(UNSAFE, false, TIMEOUT);
+    }
+
+    @Benchmark
+    public void park_expired() {
+        autoClock.Unsafe_park(UNSAFE, false, TIMEOUT);
+    }
+}
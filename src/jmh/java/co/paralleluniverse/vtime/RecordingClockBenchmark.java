@@ -0,0 +1,66 @@
+/*
+ * Copyright (c) 2015-2016, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are license under the terms of the
+ * MIT license.
+ */
+package co.paralleluniverse.vtime;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the per-read cost of recording with {@link RecordingClock}, compared with the recorded clock read alone.
+ * Run with {@code -prof gc} to check that recording doesn't allocate.
+ *
+ * @author pron
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class RecordingClockBenchmark {
+    private RecordingClock clock;
+
+    @Setup
+    public void setup() throws IOException {
+        final Path dir = Files.createTempDirectory("timewarp-recording");
+        clock = new RecordingClock(SystemClock.instance(), dir, RecordingClock.DEFAULT_LOG_SIZE);
+    }
+
+    @Benchmark
+    public long baseline_nanoTime() {
+        return System.nanoTime();
+    }
+
+    @Benchmark
+    public long recording_nanoTime() {
+        return clock.System_nanoTime();
+    }
+
+    @Benchmark
+    public long baseline_currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    @Benchmark
+    public long recording_currentTimeMillis() {
+        return clock.System_currentTimeMillis();
+    }
+}
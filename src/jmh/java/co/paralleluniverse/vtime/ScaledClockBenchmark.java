@@ -0,0 +1,66 @@
+/*
+ * Copyright (c) 2015-2016, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are license under the terms of the
+ * MIT license.
+ */
+package co.paralleluniverse.vtime;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the per-read cost of {@link ScaledClock}'s fixed-point conversion, compared with the source clock read
+ * alone and with the floating-point conversion it replaces.
+ *
+ * @author pron
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ScaledClockBenchmark {
+    @Param({"0.5", "3", "0.3333333333333333"})
+    public double scale;
+
+    private ScaledClock clock;
+    private long startNanos;
+
+    @Setup
+    public void setup() {
+        clock = new ScaledClock(scale);
+        startNanos = System.nanoTime();
+    }
+
+    @Benchmark
+    public long baseline_nanoTime() {
+        return System.nanoTime();
+    }
+
+    @Benchmark
+    public long double_nanoTime() {
+        return startNanos + (long) ((System.nanoTime() - startNanos) * scale);
+    }
+
+    @Benchmark
+    public long fixedPoint_nanoTime() {
+        return clock.System_nanoTime();
+    }
+
+    @Benchmark
+    public long fixedPoint_currentTimeMillis() {
+        return clock.System_currentTimeMillis();
+    }
+}
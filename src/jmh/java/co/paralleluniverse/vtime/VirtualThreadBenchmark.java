@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2015-2016, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are license under the terms of the
+ * MIT license.
+ */
+package co.paralleluniverse.vtime;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures how long it takes a {@link ManualClock} to wake up a large number of virtual threads, sleeping or parked with
+ * deadlines spread over one second, once the clock is advanced past all of them. The threads are registered with the clock,
+ * so that it's only advanced once they're all blocked.
+ * <p>
+ * Requires JDK 21 or later. Run with {@code ./gradlew jmh -PjmhInclude=VirtualThreadBenchmark}.
+ *
+ * @author pron
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class VirtualThreadBenchmark {
+    private static final int SPAN_MILLIS = 1000;
+
+    @Param({"SKIP_LIST", "TIMING_WHEEL"})
+    public ManualClock.WaiterStore store;
+
+    @Param({"100000", "1000000"})
+    public int threads;
+
+    @Param({"sleep", "parkNanos"})
+    public String op;
+
+    private ExecutorService executor;
+    private ManualClock clock;
+    private CountDownLatch done;
+
+    @Setup(Level.Iteration)
+    public void setup() throws Exception {
+        executor = newVirtualThreadPerTaskExecutor();
+        clock = new ManualClock(0, store);
+        done = new CountDownLatch(threads);
+        final AtomicInteger started = new AtomicInteger();
+        final boolean sleep = "sleep".equals(op);
+        final Random random = new Random(1);
+        for (int i = 0; i < threads; i++) {
+            final long millis = 1 + random.nextInt(SPAN_MILLIS);
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    clock.register(Thread.currentThread());
+                    started.incrementAndGet();
+                    try {
+                        if (sleep)
+                            clock.Thread_sleep(millis);
+                        else
+                            clock.LockSupport_parkNanos(null, TimeUnit.MILLISECONDS.toNanos(millis));
+                    } catch (InterruptedException e) {
+                        throw new AssertionError(e);
+                    }
+                    done.countDown();
+                }
+            });
+        }
+        while (started.get() < threads)
+            Thread.sleep(10);
+        while (!clock.isIdle()) // all threads have registered, so wait until they've all queued their waiters
+            Thread.sleep(10);
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        executor.shutdown();
+    }
+
+    @Benchmark
+    public void wakeAll() throws InterruptedException {
+        clock.advance(SPAN_MILLIS, TimeUnit.MILLISECONDS);
+        done.await();
+    }
+
+    private static ExecutorService newVirtualThreadPerTaskExecutor() throws Exception {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (NoSuchMethodException e) {
+            throw new UnsupportedOperationException("Virtual threads require JDK 21 or later", e);
+        }
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2015-2016, Parallel Universe Software Co. All rights reserved.
+ * 
+ * This program and the accompanying materials are license under the terms of the
+ * MIT license.
+ */
+package co.paralleluniverse.vtime;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the {@link ManualClock.WaiterStore waiter stores} at an increasing number of waiters.
+ * <p>
+ * Each operation models a periodic sleeper in steady state: the clock advances by one period's share, the expired
+ * waiters are removed, and one waiter is re-registered a full period ahead, so the number of waiters stays constant.
+ *
+ * @author pron
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(1)
+@State(Scope.Thread)
+public class WaiterStoreBenchmark {
+    private static final long PERIOD = TimeUnit.MILLISECONDS.toNanos(10);
+
+    @Param({"SKIP_LIST", "TIMING_WHEEL"})
+    public ManualClock.WaiterStore store;
+
+    @Param({"1000", "10000", "100000", "1000000"})
+    public int waiters;
+
+    private DeadlineQueue<Waiter> queue;
+    private final Random random = new Random(1);
+    private long now;
+
+    private static final class Waiter extends Deadline {
+        Waiter(long deadline) {
+            super(deadline);
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void setup() {
+        now = 0;
+        queue = store == ManualClock.WaiterStore.SKIP_LIST ? new SkipListDeadlineQueue<Waiter>() : new TimingWheel<Waiter>(now);
+        for (int i = 0; i < waiters; i++)
+            queue.add(new Waiter(nextDeadline()));
+    }
+
+    @Benchmark
+    public int advance() {
+        now += PERIOD / waiters + 1;
+        int expired = 0;
+        while (queue.pollExpired(now) != null)
+            expired++;
+        queue.add(new Waiter(nextDeadline()));
+        return expired;
+    }
+
+    private long nextDeadline() {
+        return now + 1 + (long) (random.nextDouble() * PERIOD);
+    }
+}
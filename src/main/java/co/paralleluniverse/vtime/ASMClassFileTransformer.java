@@ -6,36 +6,86 @@
  */
 package co.paralleluniverse.vtime;
 
+import java.io.IOException;
 import java.lang.instrument.ClassFileTransformer;
 import java.lang.instrument.IllegalClassFormatException;
+import java.nio.file.Path;
 import java.security.ProtectionDomain;
 import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.ClassVisitor;
 import org.objectweb.asm.ClassWriter;
-import org.objectweb.asm.Type;
 
 abstract class ASMClassFileTransformer implements ClassFileTransformer {
+    private ClassCache cache;
+
+    /**
+     * Caches instrumented classes, in memory (the most recently used ones) and, if {@code dir} is not {@code null}, on disk.
+     * Must be called before the transformer is installed.
+     *
+     * @param dir the directory of the on-disk cache, or {@code null} for an in-memory cache only
+     */
+    void enableCache(Path dir) throws IOException {
+        this.cache = new ClassCache(version(), dir);
+    }
     
     @Override
     public byte[] transform(ClassLoader loader, String className, Class<?> classBeingRedefined, ProtectionDomain protectionDomain, byte[] classfileBuffer) throws IllegalClassFormatException {
         try {
-            if (filter(className))
+            if (filter(loader, className))
                 return null;
-            return instrumentClass(classfileBuffer);
+            final ClassReader cr = new ClassReader(classfileBuffer);
+            if (!needsInstrumentation(cr))
+                return null; // only classes that are rewritten are hashed and cached
+            if (cache == null)
+                return instrumentClass(loader, cr);
+
+            // the disk cache's I/O may itself need the bootstrap class being loaded (e.g. java.util.Random), so those stay in memory
+            final boolean disk = loader != null;
+            final String key = cache.key(classfileBuffer, variant(loader));
+            byte[] result = cache.get(key, disk);
+            if (result == null) {
+                result = instrumentClass(loader, cr);
+                cache.put(key, result, disk);
+            }
+            return result;
         } catch (Throwable t) {
-            System.err.println("WARNING: Instrumentation by " + getClass().getName() + " failed for class " + Type.getType(classBeingRedefined).getClassName() + ": " + t);
+            System.err.println("WARNING: Instrumentation by " + getClass().getName() + " failed for class " + className + ": " + t);
             throw t; // same effect as returning null
         }
     }
     
-    protected abstract boolean filter(String className);
+    /**
+     * Returns {@code true} if classes of the given name, loaded by the given loader, must be left unchanged.
+     */
+    protected abstract boolean filter(ClassLoader loader, String className);
     
-    protected abstract ClassVisitor createVisitor(ClassVisitor next);
+    /**
+     * Returns {@code false} if the class can be left unchanged; called before the class is parsed.
+     */
+    protected boolean needsInstrumentation(ClassReader cr) {
+        return true;
+    }
+
+    protected abstract ClassVisitor createVisitor(ClassLoader loader, ClassReader cr, ClassVisitor next);
+
+    /**
+     * Identifies how classes loaded by the given loader are transformed, if that differs among class loaders;
+     * {@code null} otherwise.
+     */
+    protected String variant(ClassLoader loader) {
+        return null;
+    }
+
+    /**
+     * Identifies the transformation performed by this transformer, and must change whenever its output changes.
+     */
+    protected String version() {
+        return getClass().getName();
+    }
     
-    protected byte[] instrumentClass(byte[] classfileBuffer) {
-        ClassReader cr = new ClassReader(classfileBuffer);
+    protected byte[] instrumentClass(ClassLoader loader, ClassReader cr) {
         ClassWriter cw = new ClassWriter(cr, 0);
-        ClassVisitor cv = createVisitor(cw);
+        ClassVisitor cv = createVisitor(loader, cr, cw);
         cr.accept(cv, 0);
         return cw.toByteArray();
     }
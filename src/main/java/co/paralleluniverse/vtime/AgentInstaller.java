@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2015-2016, Parallel Universe Software Co. All rights reserved.
+ * 
+ * This program and the accompanying materials are license under the terms of the
+ * MIT license.
+ */
+package co.paralleluniverse.vtime;
+
+import java.io.IOException;
+import java.lang.instrument.Instrumentation;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Installs the agent with the options parsed by {@link JavaAgent}.
+ */
+final class AgentInstaller {
+    static final int DEFAULT_RETRANSFORM_BATCH = 32;
+
+    static void install(Map<String, String> options, Instrumentation instrumentation, boolean retransform) throws IOException {
+        if (retransform && !instrumentation.isRetransformClassesSupported())
+            throw new UnsupportedOperationException("Retransformation isn't supported by this JVM");
+
+        System.err.println("NOTE: VIRTUAL TIME IN EFFECT");
+        // JDK classes can only link to Clock_ if it's on the bootstrap class path (e.g. when retransforming, JavaAgent puts it there).
+        // On JDK 9+, LockSupport and the rest of java.base park with jdk.internal.misc.Unsafe, so instrument the JDK, too;
+        // this also requires java.base to read the bootstrap class path's unnamed module, and the JDK classes loaded before
+        // the agent to be retransformed.
+        final boolean jdk = Modules.isModular() && Clock_.class.getClassLoader() == null && instrumentation.isRetransformClassesSupported();
+        final boolean bootstrap = Modules.isModular() ? jdk : Clock_.class.getClassLoader() == null;
+        final VirtualTimeClassTransformer transformer = new VirtualTimeClassTransformer(options.containsKey("indy"), packageFilter(options), bootstrap);
+        final String metrics = option(options, "metrics");
+        if (metrics != null) {
+            final boolean callSites = "sites".equals(metrics);
+            Metrics.enable(callSites);
+            transformer.enableMetrics(callSites);
+        }
+        if (options.containsKey("cacheDir")) {
+            if (metrics != null) { // counter ids are only meaningful in this JVM
+                System.err.println("WARNING: cacheDir is ignored when metrics are enabled; caching in memory only");
+                transformer.enableCache(null);
+            } else
+                transformer.enableCache(Paths.get(options.get("cacheDir")));
+        } else if (options.containsKey("cache"))
+            transformer.enableCache(null);
+        if (jdk)
+            Modules.addReads(instrumentation, Clock_.class);
+        instrumentation.addTransformer(transformer, retransform || jdk);
+        
+        Clock clock = SystemClock.instance();
+        if (options.containsKey("sharedClock")) {
+            System.err.println("SHARED CLOCK in " + options.get("sharedClock"));
+            clock = new SharedClock(Paths.get(options.get("sharedClock")));
+        }
+        if (options.containsKey("slowdown")) {
+            final double scale = 1.0 / Integer.parseInt(options.get("slowdown"));
+            System.err.println("SCALING CLOCK by " + scale);
+            clock = new ScaledClock(clock, scale);
+        }
+        if (options.containsKey("coarse")) {
+            final long resolution = Long.parseLong(options.get("coarse"));
+            System.err.println("COARSE CLOCK with a resolution of " + resolution + "ms");
+            clock = new CoarseClock(clock, resolution, TimeUnit.MILLISECONDS);
+        }
+        if (options.containsKey("record")) {
+            System.err.println("RECORDING CLOCK to " + options.get("record"));
+            clock = new RecordingClock(clock, Paths.get(options.get("record")), RecordingClock.DEFAULT_LOG_SIZE);
+        } else if (options.containsKey("replay")) {
+            System.err.println("REPLAYING CLOCK from " + options.get("replay"));
+            clock = new ReplayClock(clock, Paths.get(options.get("replay")));
+        }
+        if (clock != SystemClock.instance())
+            VirtualClock.setGlobal(clock);
+
+        final int batch = options.containsKey("retransformBatch") ? Integer.parseInt(options.get("retransformBatch")) : DEFAULT_RETRANSFORM_BATCH;
+        if (retransform)
+            new Retransformer(instrumentation, transformer, batch).start();
+        else if (jdk)
+            new Retransformer(instrumentation, transformer, batch).run(); // the JDK classes loaded before the agent, before main starts
+        ManualClock.conditionsPark = jdk && conditionsPark();
+    }
+
+    /**
+     * Whether {@code AbstractQueuedSynchronizer}'s conditions park outside the condition class (JDK 17+), so that,
+     * once the JDK is instrumented, their parks go through the clock.
+     */
+    private static boolean conditionsPark() {
+        try {
+            Class.forName("java.util.concurrent.locks.AbstractQueuedSynchronizer$ConditionNode");
+            return true;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Builds the package filter from the agent options, or, if not given, the {@code timewarp.include}, {@code timewarp.exclude}
+     * and {@code timewarp.filterFile} system properties.
+     */
+    static PackageFilter packageFilter(Map<String, String> options) throws IOException {
+        final String include = option(options, "include");
+        final String exclude = option(options, "exclude");
+        final String file = option(options, "filterFile");
+        if (include == null && exclude == null && file == null)
+            return null;
+
+        final PackageFilter filter = new PackageFilter();
+        if (file != null)
+            filter.load(Paths.get(file));
+        if (include != null)
+            filter.include(include);
+        if (exclude != null)
+            filter.exclude(exclude);
+        return filter;
+    }
+
+    private static String option(Map<String, String> options, String name) {
+        final String value = options.get(name);
+        return value != null ? value : System.getProperty("timewarp." + name);
+    }
+
+    private AgentInstaller() {
+    }
+}
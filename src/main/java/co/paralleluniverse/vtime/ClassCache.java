@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) 2015-2016, Parallel Universe Software Co. All rights reserved.
+ * 
+ * This program and the accompanying materials are license under the terms of the
+ * MIT license.
+ */
+package co.paralleluniverse.vtime;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A content-addressed cache of instrumented class files, keyed by a digest of the original class file, the transformer's version
+ * and the variant of the transformation (see {@link ASMClassFileTransformer#variant(ClassLoader)}).
+ * <p>
+ * Only classes that the transformer changes are cached. The {@value #MEMORY_ENTRIES} most recently used entries are kept in memory,
+ * where they are shared by all class loaders, and, optionally, all entries but those of bootstrap classes are kept in a directory
+ * on disk, where they are shared by all JVMs using the same directory. Each disk entry is a file named after its key; entries are
+ * written to a temporary file which is then atomically renamed, so concurrent writers (of necessarily identical contents) never
+ * expose partial entries.
+ *
+ * @author pron
+ */
+final class ClassCache {
+    static final int MEMORY_ENTRIES = 1024;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final byte[] version;
+    private final Path dir;
+    private final Map<String, byte[]> memory = new LinkedHashMap<String, byte[]>(16, 0.75f, true) { // guarded by itself
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, byte[]> eldest) {
+            return size() > MEMORY_ENTRIES;
+        }
+    };
+    private final ThreadLocal<MessageDigest> digest = new ThreadLocal<MessageDigest>() {
+        @Override
+        protected MessageDigest initialValue() {
+            try {
+                return MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new AssertionError(e);
+            }
+        }
+    };
+
+    /**
+     * @param version the transformer's version; entries written by a different version are never returned
+     * @param dir     the directory of the on-disk store, or {@code null} for an in-memory cache only
+     */
+    ClassCache(String version, Path dir) throws IOException {
+        this.version = version.getBytes(StandardCharsets.UTF_8);
+        this.dir = dir;
+        if (dir != null)
+            Files.createDirectories(dir);
+    }
+
+    @Override
+    public String toString() {
+        synchronized (memory) {
+            return "ClassCache{dir=" + dir + " entries=" + memory.size() + '}';
+        }
+    }
+
+    String key(byte[] classfile, String variant) {
+        final MessageDigest md = digest.get();
+        md.update(version);
+        if (variant != null) {
+            md.update((byte) 0);
+            md.update(variant.getBytes(StandardCharsets.UTF_8));
+        }
+        final byte[] hash = md.digest(classfile);
+        final char[] chars = new char[hash.length * 2];
+        for (int i = 0; i < hash.length; i++) {
+            chars[2 * i] = HEX[(hash[i] >> 4) & 0xf];
+            chars[2 * i + 1] = HEX[hash[i] & 0xf];
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Returns the cached instrumented class, or {@code null} if not cached.
+     *
+     * @param disk whether to look for the entry on disk if it's not in memory
+     */
+    byte[] get(String key, boolean disk) {
+        byte[] classfile;
+        synchronized (memory) {
+            classfile = memory.get(key);
+        }
+        if (classfile == null && disk && dir != null) {
+            classfile = read(file(key));
+            if (classfile != null) {
+                synchronized (memory) {
+                    memory.put(key, classfile);
+                }
+            }
+        }
+        return classfile;
+    }
+
+    /**
+     * Caches an instrumented class.
+     *
+     * @param disk whether to store the entry on disk as well as in memory
+     */
+    void put(String key, byte[] classfile, boolean disk) {
+        final boolean added;
+        synchronized (memory) {
+            added = memory.put(key, classfile) == null;
+        }
+        if (added && disk && dir != null)
+            write(file(key), classfile);
+    }
+
+    private Path file(String key) {
+        return dir.resolve(key.substring(0, 2)).resolve(key);
+    }
+
+    private static byte[] read(Path file) {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            final long size = ch.size();
+            if (size == 0)
+                return null; // not an instrumented class; treat as a miss
+            final MappedByteBuffer buffer = ch.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            final byte[] classfile = new byte[(int) size];
+            buffer.get(classfile);
+            return classfile;
+        } catch (IOException e) {
+            return null; // missing or unreadable; treat as a miss
+        }
+    }
+
+    private static void write(Path file, byte[] classfile) {
+        Path tmp = null;
+        try {
+            Files.createDirectories(file.getParent());
+            tmp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+            try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                final ByteBuffer buffer = ByteBuffer.wrap(classfile);
+                while (buffer.hasRemaining())
+                    ch.write(buffer);
+            }
+            Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE);
+            tmp = null;
+        } catch (FileAlreadyExistsException e) {
+            // a concurrent writer has already stored the (identical) entry
+        } catch (IOException e) {
+            System.err.println("WARNING: Could not write class cache entry " + file + ": " + e);
+        } finally {
+            if (tmp != null) {
+                try {
+                    Files.deleteIfExists(tmp);
+                } catch (IOException e) {
+                }
+            }
+        }
+    }
+}
@@ -6,6 +6,9 @@
  */
 package co.paralleluniverse.vtime;
 
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+
 /**
  * Encapsulates the behavior of all JDK time-related operations.
  *
@@ -53,8 +56,26 @@ public abstract class Clock {
         return System_nanoTime();
     }
 
+    /**
+     * Returns a {@code java.time.Clock} in the UTC time zone backed by this clock.
+     * Requires Java 8.
+     *
+     * @return a {@code java.time.Clock} view of this clock
+     */
+    public final java.time.Clock asJavaTimeClock() {
+        return JavaTime_.utc(this); // must not refer to any other java.time class here, so that this class loads on Java 7
+    }
+
     abstract long System_currentTimeMillis();
 
+    /**
+     * Returns the current time in nanoseconds since midnight, January 1, 1970 UTC; used for {@code java.time} instants.
+     * The default implementation has millisecond precision.
+     */
+    long epochNanos() {
+        return System_currentTimeMillis() * 1000000L;
+    }
+
     abstract long System_nanoTime();
 
     abstract void Object_wait(Object obj, long timeout) throws InterruptedException;
@@ -71,6 +92,33 @@ public abstract class Clock {
 
     abstract void Unsafe_park(sun.misc.Unsafe unsafe, boolean isAbsolute, long timeout);
 
+    /**
+     * Replaces {@code LockSupport.parkNanos}. Unlike {@code Unsafe.park}, {@code LockSupport} unmounts a virtual thread
+     * rather than pinning its carrier, so implementations must park with {@code LockSupport}, too.
+     */
+    abstract void LockSupport_parkNanos(Object blocker, long nanos);
+
+    /**
+     * Replaces {@code LockSupport.parkUntil}.
+     */
+    abstract void LockSupport_parkUntil(Object blocker, long deadline);
+
+    /**
+     * Replaces {@code LockSupport.park}, so that the clock can tell when a thread blocks indefinitely.
+     */
+    abstract void LockSupport_park(Object blocker);
+
+    /**
+     * Replaces {@code LockSupport.unpark}, so that the clock can tell when a thread is woken.
+     */
+    abstract void LockSupport_unpark(Thread thread);
+
+    abstract long Condition_awaitNanos(Condition cond, long nanosTimeout) throws InterruptedException;
+
+    boolean Condition_await(Condition cond, long time, TimeUnit unit) throws InterruptedException {
+        return Condition_awaitNanos(cond, unit.toNanos(time)) > 0;
+    }
+
     private static long toMillis(long millis, int nanos) {
         if (millis < 0)
             throw new IllegalArgumentException("timeout value is negative");
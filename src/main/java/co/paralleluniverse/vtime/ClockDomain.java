@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2015-2016, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are license under the terms of the
+ * MIT license.
+ */
+package co.paralleluniverse.vtime;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * A clock shared by all classes loaded by the class loaders bound to the domain, whatever thread calls them.
+ * This suits isolated tenants or test modules, each loaded by its own class loader, that share a thread pool,
+ * where thread-scoped clocks don't apply.
+ * <p>
+ * A class loader must be {@link #bind(ClassLoader) bound} to a domain before it loads the classes that should use the
+ * domain's clock: the agent rewrites their time calls to read the clock from the domain's slot, rather than from
+ * {@link VirtualClock}. Until a clock is {@link #setClock(Clock) set}, or after it's set to {@code null}, the classes
+ * use the clock {@link VirtualClock#get() in effect} for the calling thread.
+ * <p>
+ * Domains are never discarded, so they should be created once per tenant, and reused.
+ *
+ * @author pron
+ */
+public final class ClockDomain {
+    private static final Map<ClassLoader, ClockDomain> loaders = new WeakHashMap<>(); // guarded by ClockDomain.class
+    private static volatile ClockDomain[] domains = new ClockDomain[0]; // indexed by id, which is embedded in instrumented code
+
+    final int id;
+    private volatile Clock clock;
+
+    /**
+     * Creates a new clock domain, with no clock set.
+     */
+    public ClockDomain() {
+        synchronized (ClockDomain.class) {
+            final ClockDomain[] ds = Arrays.copyOf(domains, domains.length + 1);
+            this.id = ds.length - 1;
+            ds[id] = this;
+            domains = ds;
+        }
+    }
+
+    /**
+     * Binds a class loader to this domain. Only affects classes loaded by the given loader (and not by its children)
+     * after this call.
+     *
+     * @throws IllegalStateException if the loader is already bound to another domain
+     */
+    public void bind(ClassLoader loader) {
+        if (loader == null)
+            throw new IllegalArgumentException("The bootstrap class loader can't be bound to a domain");
+        synchronized (ClockDomain.class) {
+            final ClockDomain current = loaders.get(loader);
+            if (current != null && current != this)
+                throw new IllegalStateException("Class loader " + loader + " is already bound to " + current);
+            loaders.put(loader, this);
+        }
+    }
+
+    /**
+     * Puts the given clock in effect for all classes in this domain.
+     * Passing {@code null} defers to the clock {@link VirtualClock#get() in effect} for the calling thread.
+     */
+    public void setClock(Clock clock) {
+        this.clock = clock;
+    }
+
+    /**
+     * Returns the clock in effect for this domain, or {@code null} if none is set.
+     */
+    public Clock getClock() {
+        return clock;
+    }
+
+    @Override
+    public String toString() {
+        return "ClockDomain{id=" + id + " clock=" + clock + '}';
+    }
+
+    /**
+     * Returns the domain the given class loader is bound to, or {@code null} if none.
+     */
+    static synchronized ClockDomain of(ClassLoader loader) {
+        return loader != null ? loaders.get(loader) : null;
+    }
+
+    /**
+     * Returns the domain with the given id.
+     */
+    static ClockDomain get(int id) {
+        return domains[id];
+    }
+
+    /**
+     * Returns the clock in effect for the domain with the given id.
+     */
+    static Clock clock(int id) {
+        return domains[id].current();
+    }
+
+    /**
+     * Returns the clock in effect for this domain for the calling thread.
+     */
+    Clock current() {
+        final Clock c = clock;
+        return c != null ? c : VirtualClock.get();
+    }
+}
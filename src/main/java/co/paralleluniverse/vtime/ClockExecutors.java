@@ -0,0 +1,248 @@
+/*
+ * Copyright (c) 2015-2016, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are license under the terms of the
+ * MIT license.
+ */
+package co.paralleluniverse.vtime;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Wraps executors so that each task runs under the clock that was {@link VirtualClock#get() in effect} for the thread
+ * that submitted it, rather than whichever clock the pool's worker thread happens to have inherited.
+ * <p>
+ * The submitter's clock is captured when the task is submitted, put in effect for the worker thread -- as by
+ * {@link VirtualClock#setForCurrentThread(Clock) setForCurrentThread} -- while the task runs, and the worker's own
+ * thread clock is restored afterwards. Neither capturing nor installing the clock allocates (beyond the task's wrapper),
+ * so pooled threads can stand in for a thread per simulated actor. As long as no thread-scoped clock has ever been set,
+ * tasks are submitted unwrapped, as they would run under the global clock anyway.
+ * <p>
+ * The wrappers apply to a {@code ForkJoinPool}, too, as an {@code ExecutorService}, but only to the tasks submitted
+ * through them, not to the subtasks those tasks fork. The executor's own timing -- e.g. a
+ * {@code ScheduledThreadPoolExecutor}'s delays -- follows the clock in effect for its worker threads.
+ *
+ * @author pron
+ */
+public final class ClockExecutors {
+    /**
+     * Returns an executor that runs each task under its submitter's clock.
+     */
+    public static Executor wrap(final Executor executor) {
+        if (executor instanceof ScheduledExecutorService)
+            return wrap((ScheduledExecutorService) executor);
+        if (executor instanceof ExecutorService)
+            return wrap((ExecutorService) executor);
+        return new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                executor.execute(capture(command));
+            }
+        };
+    }
+
+    /**
+     * Returns an executor service that runs each task under its submitter's clock.
+     */
+    public static ExecutorService wrap(ExecutorService executor) {
+        if (executor instanceof ScheduledExecutorService)
+            return wrap((ScheduledExecutorService) executor);
+        return executor instanceof ClockExecutorService ? executor : new ClockExecutorService<>(executor);
+    }
+
+    /**
+     * Returns a scheduled executor service that runs each task under its submitter's clock.
+     */
+    public static ScheduledExecutorService wrap(ScheduledExecutorService executor) {
+        return executor instanceof ClockScheduledExecutorService ? executor : new ClockScheduledExecutorService(executor);
+    }
+
+    /**
+     * Wraps a task so that it runs under the clock currently in effect for the calling thread.
+     */
+    public static Runnable capture(Runnable task) {
+        return VirtualClock.hasThreadClocks() ? new ClockRunnable(task, VirtualClock.get()) : task;
+    }
+
+    /**
+     * Wraps a task so that it runs under the clock currently in effect for the calling thread.
+     */
+    public static <V> Callable<V> capture(Callable<V> task) {
+        return VirtualClock.hasThreadClocks() ? new ClockCallable<>(task, VirtualClock.get()) : task;
+    }
+
+    private static <V> List<Callable<V>> captureAll(Collection<? extends Callable<V>> tasks) {
+        final List<Callable<V>> captured = new ArrayList<>(tasks.size());
+        for (Callable<V> task : tasks)
+            captured.add(capture(task));
+        return captured;
+    }
+
+    private static final class ClockRunnable implements Runnable {
+        private final Runnable task;
+        private final Clock clock;
+
+        ClockRunnable(Runnable task, Clock clock) {
+            this.task = task;
+            this.clock = clock;
+        }
+
+        @Override
+        public void run() {
+            final Clock previous = VirtualClock.swapForCurrentThread(clock);
+            try {
+                task.run();
+            } finally {
+                VirtualClock.swapForCurrentThread(previous);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return task.toString();
+        }
+    }
+
+    private static final class ClockCallable<V> implements Callable<V> {
+        private final Callable<V> task;
+        private final Clock clock;
+
+        ClockCallable(Callable<V> task, Clock clock) {
+            this.task = task;
+            this.clock = clock;
+        }
+
+        @Override
+        public V call() throws Exception {
+            final Clock previous = VirtualClock.swapForCurrentThread(clock);
+            try {
+                return task.call();
+            } finally {
+                VirtualClock.swapForCurrentThread(previous);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return task.toString();
+        }
+    }
+
+    private static class ClockExecutorService<E extends ExecutorService> implements ExecutorService {
+        final E executor;
+
+        ClockExecutorService(E executor) {
+            this.executor = executor;
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            executor.execute(capture(command));
+        }
+
+        @Override
+        public <T> Future<T> submit(Callable<T> task) {
+            return executor.submit(capture(task));
+        }
+
+        @Override
+        public <T> Future<T> submit(Runnable task, T result) {
+            return executor.submit(capture(task), result);
+        }
+
+        @Override
+        public Future<?> submit(Runnable task) {
+            return executor.submit(capture(task));
+        }
+
+        @Override
+        public <T> List<Future<T>> invokeAll(Collection<? extends Callable<T>> tasks) throws InterruptedException {
+            return executor.invokeAll(captureAll(tasks));
+        }
+
+        @Override
+        public <T> List<Future<T>> invokeAll(Collection<? extends Callable<T>> tasks, long timeout, TimeUnit unit) throws InterruptedException {
+            return executor.invokeAll(captureAll(tasks), timeout, unit);
+        }
+
+        @Override
+        public <T> T invokeAny(Collection<? extends Callable<T>> tasks) throws InterruptedException, ExecutionException {
+            return executor.invokeAny(captureAll(tasks));
+        }
+
+        @Override
+        public <T> T invokeAny(Collection<? extends Callable<T>> tasks, long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+            return executor.invokeAny(captureAll(tasks), timeout, unit);
+        }
+
+        @Override
+        public void shutdown() {
+            executor.shutdown();
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            return executor.shutdownNow();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return executor.isShutdown();
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return executor.isTerminated();
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+            return executor.awaitTermination(timeout, unit);
+        }
+
+        @Override
+        public String toString() {
+            return "ClockExecutorService{" + executor + '}';
+        }
+    }
+
+    private static final class ClockScheduledExecutorService extends ClockExecutorService<ScheduledExecutorService> implements ScheduledExecutorService {
+        ClockScheduledExecutorService(ScheduledExecutorService executor) {
+            super(executor);
+        }
+
+        @Override
+        public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+            return executor.schedule(capture(command), delay, unit);
+        }
+
+        @Override
+        public <V> ScheduledFuture<V> schedule(Callable<V> callable, long delay, TimeUnit unit) {
+            return executor.schedule(capture(callable), delay, unit);
+        }
+
+        @Override
+        public ScheduledFuture<?> scheduleAtFixedRate(Runnable command, long initialDelay, long period, TimeUnit unit) {
+            return executor.scheduleAtFixedRate(capture(command), initialDelay, period, unit);
+        }
+
+        @Override
+        public ScheduledFuture<?> scheduleWithFixedDelay(Runnable command, long initialDelay, long delay, TimeUnit unit) {
+            return executor.scheduleWithFixedDelay(capture(command), initialDelay, delay, unit);
+        }
+    }
+
+    private ClockExecutors() {
+    }
+}
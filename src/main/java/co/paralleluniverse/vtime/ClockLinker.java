@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2015-2016, Parallel Universe Software Co. All rights reserved.
+ * 
+ * This program and the accompanying materials are license under the terms of the
+ * MIT license.
+ */
+package co.paralleluniverse.vtime;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.MutableCallSite;
+import java.lang.invoke.SwitchPoint;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Links the {@code invokedynamic} call sites emitted by {@link VirtualTimeClassTransformer} in indy mode.
+ * <p>
+ * While virtual time is dormant -- the global clock is the {@link SystemClock} and no thread-scoped clock has been set --
+ * call sites are linked directly to the JDK method they replace (e.g. {@code System.nanoTime}), guarded by a {@link SwitchPoint}.
+ * When a different clock is installed the switch point is invalidated and the call sites fall back to the {@link Clock_} trampolines;
+ * if virtual time becomes dormant again, they are relinked to the JDK methods under a new switch point.
+ *
+ * @author pron
+ */
+public final class ClockLinker {
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+    private static final List<WeakReference<Site>> sites = new ArrayList<>();
+    private static SwitchPoint switchPoint = new SwitchPoint();
+    private static boolean dormant = true;
+
+    /**
+     * The bootstrap method of the call sites. {@code name} is the name of the {@link Clock_} method and {@code type} its type.
+     */
+    public static CallSite bootstrap(MethodHandles.Lookup caller, String name, MethodType type) throws NoSuchMethodException, IllegalAccessException {
+        final Site site = new Site(LOOKUP.findStatic(Clock_.class, name, type), jdkMethod(name, type));
+        synchronized (ClockLinker.class) {
+            site.link(dormant ? switchPoint : null);
+            sites.add(new WeakReference<>(site));
+        }
+        return site;
+    }
+
+    /**
+     * Called by {@link VirtualClock} whenever the clocks in effect change.
+     */
+    static synchronized void update(boolean nowDormant) {
+        if (nowDormant == dormant)
+            return;
+        dormant = nowDormant;
+        if (!dormant) {
+            SwitchPoint.invalidateAll(new SwitchPoint[]{switchPoint});
+            switchPoint = new SwitchPoint();
+        } else {
+            final List<MutableCallSite> relinked = new ArrayList<>();
+            for (Iterator<WeakReference<Site>> it = sites.iterator(); it.hasNext();) {
+                final Site site = it.next().get();
+                if (site == null)
+                    it.remove();
+                else {
+                    site.link(switchPoint);
+                    relinked.add(site);
+                }
+            }
+            MutableCallSite.syncAll(relinked.toArray(new MutableCallSite[relinked.size()]));
+        }
+    }
+
+    private static MethodHandle jdkMethod(String name, MethodType type) throws NoSuchMethodException, IllegalAccessException {
+        switch (name) {
+            case "System_currentTimeMillis":
+                return LOOKUP.findStatic(System.class, "currentTimeMillis", type);
+            case "System_nanoTime":
+                return LOOKUP.findStatic(System.class, "nanoTime", type);
+            case "Thread_sleep":
+                return LOOKUP.findStatic(Thread.class, "sleep", type);
+            case "Object_wait":
+                return LOOKUP.findVirtual(Object.class, "wait", type.dropParameterTypes(0, 1));
+            case "Unsafe_park":
+                if (type.parameterType(0) != sun.misc.Unsafe.class) // jdk.internal.misc.Unsafe, passed as an Object
+                    return MethodHandles.dropArguments(LOOKUP.findVirtual(sun.misc.Unsafe.class, "park", type.dropParameterTypes(0, 1))
+                            .bindTo(UtilUnsafe.getUnsafe()), 0, type.parameterType(0));
+                return LOOKUP.findVirtual(sun.misc.Unsafe.class, "park", type.dropParameterTypes(0, 1));
+            case "LockSupport_park":
+                return LOOKUP.findStatic(LockSupport.class, "park", type);
+            case "LockSupport_unpark":
+                return LOOKUP.findStatic(LockSupport.class, "unpark", type);
+            case "LockSupport_parkNanos":
+                return LOOKUP.findStatic(LockSupport.class, "parkNanos", type);
+            case "LockSupport_parkUntil":
+                return LOOKUP.findStatic(LockSupport.class, "parkUntil", type);
+            case "Condition_awaitNanos":
+                return LOOKUP.findVirtual(Condition.class, "awaitNanos", type.dropParameterTypes(0, 1));
+            case "Condition_await":
+                return LOOKUP.findVirtual(Condition.class, "await", type.dropParameterTypes(0, 1));
+            default:
+                throw new NoSuchMethodException(name + type);
+        }
+    }
+
+    private static final class Site extends MutableCallSite {
+        private final MethodHandle clock;
+        private final MethodHandle jdk;
+
+        Site(MethodHandle clock, MethodHandle jdk) {
+            super(clock.type());
+            this.clock = clock;
+            this.jdk = jdk;
+        }
+
+        void link(SwitchPoint sp) {
+            setTarget(sp != null ? sp.guardWithTest(jdk, clock) : clock);
+        }
+    }
+
+    private ClockLinker() {
+    }
+}
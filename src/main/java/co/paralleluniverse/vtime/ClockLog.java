@@ -0,0 +1,210 @@
+/*
+ * Copyright (c) 2015-2016, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are license under the terms of the
+ * MIT license.
+ */
+package co.paralleluniverse.vtime;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A thread's log of clock operations, recorded by {@link RecordingClock} and replayed by {@link ReplayClock}.
+ * <p>
+ * The log is a memory-mapped file holding a header followed by a ring of records. A record is a tag byte followed by
+ * zig-zag varints: the times read are encoded as the difference from the previous time of the same kind, and the
+ * durations as they are. A record never straddles the ring's end; when the next one doesn't fit, the rest of the ring is
+ * padded, and the writer wraps around to the ring's start, where the differences start again from zero, so the ring can be
+ * decoded from the start of either part. Reads and writes are plain memory accesses, with no system calls.
+ *
+ * @author pron
+ */
+final class ClockLog {
+    // tags
+    static final int PAD = 0;
+    static final int NANO_TIME = 1;
+    static final int CURRENT_TIME_MILLIS = 2;
+    static final int SLEEP = 3;        // millis
+    static final int WAIT = 4;         // millis
+    static final int PARK_NANOS = 5;   // nanos
+    static final int PARK_UNTIL = 6;   // deadline (epoch millis), as the difference from the last time read
+    static final int AWAIT_NANOS = 7;  // nanos, followed by the nanos left, as their difference from the timeout
+
+    static final int MAX_RECORD = 1 + 2 * 10;
+
+    private static final int MAGIC = 0x5457434C; // "TWCL"
+    private static final int VERSION = 1;
+    // header layout (native byte order)
+    private static final int MAGIC_OFFSET = 0;
+    private static final int VERSION_OFFSET = 4;
+    private static final int CAPACITY_OFFSET = 8;
+    private static final int WRITTEN_OFFSET = 16; // total bytes written to the ring, including padding
+    private static final int WRAPS_OFFSET = 24;
+    private static final int HEADER = 64;
+
+    private final Path file;
+    private final MappedByteBuffer buffer; // keeps the mapping alive
+    private final long address;
+    private final long start;    // the ring's address
+    private final long capacity;
+    private long position;       // the current record's address
+    private long lap;            // the bytes written before the ring's current lap (for writing)
+    private long end;            // the address past the last record (for reading)
+    long lastNanos;
+    long lastMillis;
+
+    private ClockLog(Path file, MappedByteBuffer buffer) {
+        this.file = file;
+        this.buffer = buffer;
+        this.address = UNSAFE.getLong(buffer, ADDRESS);
+        this.start = address + HEADER;
+        this.capacity = buffer.capacity() - HEADER;
+        this.position = start;
+    }
+
+    /**
+     * Creates a new log for writing, replacing any existing log in the file.
+     *
+     * @param capacity the size of the ring, in bytes
+     */
+    static ClockLog create(Path file, int capacity) throws IOException {
+        try (FileChannel fc = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            final ClockLog log = new ClockLog(file, fc.map(FileChannel.MapMode.READ_WRITE, 0, HEADER + capacity));
+            UNSAFE.putInt(log.address + VERSION_OFFSET, VERSION);
+            UNSAFE.putLong(log.address + CAPACITY_OFFSET, capacity);
+            UNSAFE.putIntVolatile(null, log.address + MAGIC_OFFSET, MAGIC);
+            return log;
+        }
+    }
+
+    /**
+     * Opens an existing log for reading.
+     *
+     * @throws IOException if the file isn't a log, or the log has wrapped around, and so has lost its beginning
+     */
+    static ClockLog open(Path file) throws IOException {
+        try (FileChannel fc = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (fc.size() < HEADER)
+                throw new IOException(file + " is not a clock log");
+            final ClockLog log = new ClockLog(file, fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size()));
+            if (UNSAFE.getInt(log.address + MAGIC_OFFSET) != MAGIC)
+                throw new IOException(file + " is not a clock log");
+            if (UNSAFE.getInt(log.address + VERSION_OFFSET) != VERSION)
+                throw new IOException("Unsupported clock log version " + UNSAFE.getInt(log.address + VERSION_OFFSET) + " in " + file);
+            if (UNSAFE.getInt(log.address + WRAPS_OFFSET) != 0)
+                throw new IOException("The clock log " + file + " has wrapped around, and only holds the last " + log.capacity + " bytes");
+            log.end = log.start + UNSAFE.getLongVolatile(null, log.address + WRITTEN_OFFSET);
+            return log;
+        }
+    }
+
+    Path file() {
+        return file;
+    }
+
+    /**
+     * Returns the offset of the next record from the ring's start.
+     */
+    long offset() {
+        return position - start;
+    }
+
+    void force() {
+        buffer.force();
+    }
+
+    ///////////// Writing
+
+    /**
+     * Starts a record, wrapping around if it might not fit.
+     */
+    void begin(int tag) {
+        if (position + MAX_RECORD > start + capacity) {
+            UNSAFE.setMemory(position, start + capacity - position, (byte) PAD);
+            UNSAFE.putInt(address + WRAPS_OFFSET, UNSAFE.getInt(address + WRAPS_OFFSET) + 1);
+            lap += capacity;
+            position = start;
+            lastNanos = 0;
+            lastMillis = 0;
+        }
+        UNSAFE.putByte(position++, (byte) tag);
+    }
+
+    /**
+     * Writes a zig-zag varint.
+     */
+    void put(long value) {
+        long v = (value << 1) ^ (value >> 63);
+        while ((v & ~0x7FL) != 0) {
+            UNSAFE.putByte(position++, (byte) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        UNSAFE.putByte(position++, (byte) v);
+    }
+
+    /**
+     * Completes a record, publishing it to readers of the file.
+     */
+    void end() {
+        UNSAFE.putOrderedLong(null, address + WRITTEN_OFFSET, lap + (position - start));
+    }
+
+    ///////////// Reading
+
+    /**
+     * Reads the next record's tag.
+     *
+     * @return the tag, or {@code -1} if the log has ended
+     */
+    int next() {
+        return position < end ? UNSAFE.getByte(position++) : -1;
+    }
+
+    /**
+     * Reads a zig-zag varint.
+     */
+    long get() {
+        long v = 0;
+        for (int shift = 0;; shift += 7) {
+            if (position >= end)
+                throw new IllegalStateException("Truncated record in " + file);
+            final byte b = UNSAFE.getByte(position++);
+            v |= (long) (b & 0x7F) << shift;
+            if (b >= 0)
+                break;
+        }
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    /**
+     * Assigns the threads' logs their file names, from the thread names, so that the same threads find their logs on replay.
+     */
+    static final class Names {
+        private final Map<String, Integer> occurrences = new HashMap<>();
+
+        synchronized String next(Thread thread) {
+            final String name = thread.getName().replaceAll("[^A-Za-z0-9._-]", "_");
+            final Integer n = occurrences.get(name);
+            occurrences.put(name, n != null ? n + 1 : 1);
+            return name + (n != null ? "-" + n : "") + ".tlog";
+        }
+    }
+
+    private static final sun.misc.Unsafe UNSAFE = UtilUnsafe.getUnsafe();
+    private static final long ADDRESS; // the offset of a direct buffer's address
+
+    static {
+        try {
+            ADDRESS = UNSAFE.objectFieldOffset(Buffer.class.getDeclaredField("address"));
+        } catch (NoSuchFieldException e) {
+            throw new AssertionError(e);
+        }
+    }
+}
@@ -6,6 +6,9 @@
  */
 package co.paralleluniverse.vtime;
 
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+
 public final class Clock_ {
     private Clock_() {
     }
@@ -37,4 +40,49 @@ public final class Clock_ {
     public static void Unsafe_park(sun.misc.Unsafe unsafe, boolean isAbsolute, long timeout) {
         VirtualClock.get().Unsafe_park(unsafe, isAbsolute, timeout);
     }
+
+    /**
+     * Replaces {@code jdk.internal.misc.Unsafe.park} (JDK 9+), which can't be named here.
+     */
+    public static void Unsafe_park(Object unsafe, boolean isAbsolute, long timeout) {
+        VirtualClock.get().Unsafe_park(UNSAFE, isAbsolute, timeout);
+    }
+
+    public static void LockSupport_park() {
+        VirtualClock.get().LockSupport_park(null);
+    }
+
+    public static void LockSupport_park(Object blocker) {
+        VirtualClock.get().LockSupport_park(blocker);
+    }
+
+    public static void LockSupport_unpark(Thread thread) {
+        VirtualClock.get().LockSupport_unpark(thread);
+    }
+
+    public static void LockSupport_parkNanos(long nanos) {
+        VirtualClock.get().LockSupport_parkNanos(null, nanos);
+    }
+
+    public static void LockSupport_parkNanos(Object blocker, long nanos) {
+        VirtualClock.get().LockSupport_parkNanos(blocker, nanos);
+    }
+
+    public static void LockSupport_parkUntil(long deadline) {
+        VirtualClock.get().LockSupport_parkUntil(null, deadline);
+    }
+
+    public static void LockSupport_parkUntil(Object blocker, long deadline) {
+        VirtualClock.get().LockSupport_parkUntil(blocker, deadline);
+    }
+
+    public static long Condition_awaitNanos(Condition cond, long nanosTimeout) throws InterruptedException {
+        return VirtualClock.get().Condition_awaitNanos(cond, nanosTimeout);
+    }
+
+    public static boolean Condition_await(Condition cond, long time, TimeUnit unit) throws InterruptedException {
+        return VirtualClock.get().Condition_await(cond, time, unit);
+    }
+
+    private static final sun.misc.Unsafe UNSAFE = UtilUnsafe.getUnsafe();
 }
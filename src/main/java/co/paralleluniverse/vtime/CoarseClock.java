@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2015-2016, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are license under the terms of the
+ * MIT license.
+ */
+package co.paralleluniverse.vtime;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+
+/**
+ * A clock that caches another clock's time, and is updated by a background ticker thread at a fixed resolution.
+ * Reading the time is a single volatile load, so this clock suits code that reads the time often but only needs it to
+ * the given resolution (which applies to {@code nanoTime} as well as to {@code currentTimeMillis}).
+ * <p>
+ * Sleeps, waits and parks are delegated to the underlying clock. The ticker stops once the clock is no longer reachable.
+ *
+ * @author pron
+ */
+public final class CoarseClock extends Clock {
+    private final Clock source;
+    private final long resolution;
+    private volatile long millis;
+    private volatile long nanos;
+
+    /**
+     * Constructs a {@code CoarseClock} of a given clock.
+     *
+     * @param source     the underlying clock
+     * @param resolution the interval between updates of this clock's time; must be positive.
+     * @param unit       the resolution's unit
+     */
+    public CoarseClock(Clock source, long resolution, TimeUnit unit) {
+        if (resolution <= 0)
+            throw new IllegalArgumentException("Resolution must be positive; was " + resolution);
+        this.source = source;
+        this.resolution = unit.toNanos(resolution);
+        tick();
+        new Ticker(this).start();
+    }
+
+    /**
+     * Constructs a {@code CoarseClock} of the {@link SystemClock system clock}.
+     * <p>
+     * Same as calling {@link #CoarseClock(Clock, long, TimeUnit) CoarseClock(SystemClock.instance(), resolution, unit)}.
+     *
+     * @param resolution the interval between updates of this clock's time; must be positive.
+     * @param unit       the resolution's unit
+     */
+    public CoarseClock(long resolution, TimeUnit unit) {
+        this(SystemClock.instance(), resolution, unit);
+    }
+
+    @Override
+    public String toString() {
+        return "CoarseClock@" + Integer.toHexString(System.identityHashCode(this)) + "{source=" + source + " resolution=" + resolution + "ns}";
+    }
+
+    private void tick() {
+        millis = source.System_currentTimeMillis();
+        nanos = source.System_nanoTime();
+    }
+
+    @Override
+    long System_currentTimeMillis() {
+        return millis;
+    }
+
+    @Override
+    long System_nanoTime() {
+        return nanos;
+    }
+
+    @Override
+    void Object_wait(Object obj, long timeout) throws InterruptedException {
+        source.Object_wait(obj, timeout);
+    }
+
+    @Override
+    void Thread_sleep(long millis) throws InterruptedException {
+        source.Thread_sleep(millis);
+    }
+
+    @Override
+    void Unsafe_park(sun.misc.Unsafe unsafe, boolean isAbsolute, long timeout) {
+        source.Unsafe_park(unsafe, isAbsolute, timeout);
+    }
+
+    @Override
+    void LockSupport_park(Object blocker) {
+        source.LockSupport_park(blocker);
+    }
+
+    @Override
+    void LockSupport_unpark(Thread thread) {
+        source.LockSupport_unpark(thread);
+    }
+
+    @Override
+    void LockSupport_parkNanos(Object blocker, long nanos) {
+        source.LockSupport_parkNanos(blocker, nanos);
+    }
+
+    @Override
+    void LockSupport_parkUntil(Object blocker, long deadline) {
+        source.LockSupport_parkUntil(blocker, deadline);
+    }
+
+    @Override
+    long Condition_awaitNanos(Condition cond, long nanosTimeout) throws InterruptedException {
+        return source.Condition_awaitNanos(cond, nanosTimeout);
+    }
+
+    private static final class Ticker extends Thread {
+        private final WeakReference<CoarseClock> clock;
+        private final long resolution;
+
+        Ticker(CoarseClock clock) {
+            super("timewarp-coarse-clock");
+            setDaemon(true);
+            this.clock = new WeakReference<>(clock);
+            this.resolution = clock.resolution;
+        }
+
+        @Override
+        public void run() {
+            for (;;) {
+                UNSAFE.park(false, resolution); // not LockSupport, which may itself be virtualized
+                final CoarseClock c = clock.get();
+                if (c == null)
+                    return;
+                c.tick();
+            }
+        }
+    }
+
+    private static final sun.misc.Unsafe UNSAFE = UtilUnsafe.getUnsafe();
+}
@@ -596,7 +596,7 @@ class ConcurrentSkipListPriorityQueue<E> extends AbstractQueue<E>
                         r = q.right;         // reread r
                         continue;
                     }
-                    if (key.compareTo(k) >= 0) { // skip "equal" keys
+                    if (key.compareTo(k) > 0) { // stop before "equal" keys, so that doRemove can find them
                         q = r;
                         r = r.right;
                         continue;
@@ -0,0 +1,42 @@
+/*
+ * Copyright (c) 2015-2016, Parallel Universe Software Co. All rights reserved.
+ * 
+ * This program and the accompanying materials are license under the terms of the
+ * MIT license.
+ */
+package co.paralleluniverse.vtime;
+
+/**
+ * An entry in a {@link DeadlineQueue}.
+ *
+ * @author pron
+ */
+abstract class Deadline implements Comparable<Deadline> {
+    long deadline;
+    long seq;          // used by SkipListDeadlineQueue to order entries with equal deadlines
+    Deadline next;     // used by TimingWheel
+    Deadline prev;     // used by TimingWheel
+    int position = -1; // used by TimingWheel
+
+    Deadline(long deadline) {
+        this.deadline = deadline;
+    }
+
+    /**
+     * Whether this entry has been cancelled, in which case it may be discarded by the queue.
+     */
+    boolean isCancelled() {
+        return false;
+    }
+
+    @Override
+    public int compareTo(Deadline o) {
+        final int c = signum(deadline - o.deadline);
+        return c != 0 ? c : signum(seq - o.seq);
+    }
+
+    static int signum(long x) {
+        long y = (x & 0x7fffffffffffffffL) + 0x7fffffffffffffffL;
+        return (int) ((x >> 63) | (y >>> 63));
+    }
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright (c) 2015-2016, Parallel Universe Software Co. All rights reserved.
+ * 
+ * This program and the accompanying materials are license under the terms of the
+ * MIT license.
+ */
+package co.paralleluniverse.vtime;
+
+/**
+ * A thread-safe collection of {@link Deadline deadlines}, from which the expired ones are removed.
+ * Deadlines are non-negative.
+ *
+ * @author pron
+ */
+interface DeadlineQueue<E extends Deadline> {
+    void add(E e);
+
+    /**
+     * Removes an entry that has been {@link Deadline#isCancelled() cancelled}.
+     * The entry may be removed immediately or lazily, but must never be returned by {@link #pollExpired(long) pollExpired}.
+     *
+     * @return {@code true} if the entry has been removed by this call, and so may be reused; {@code false} if it has
+     *         been left in the queue to be removed lazily, or has already been taken by {@code pollExpired}.
+     */
+    boolean remove(E e);
+
+    /**
+     * Removes and returns an entry whose deadline is {@code <= now}, or returns {@code null} if there is none.
+     */
+    E pollExpired(long now);
+
+    /**
+     * Returns the earliest deadline, or {@code -1} if there are no entries.
+     */
+    long nextDeadline();
+}
@@ -0,0 +1,301 @@
+/*
+ * Copyright (c) 2015-2016, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are license under the terms of the
+ * MIT license.
+ */
+package co.paralleluniverse.vtime;
+
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs threads under a {@link ManualClock} one at a time, as a reproducible discrete-event simulation.
+ * <p>
+ * The threads {@link #spawn(String, Runnable) spawned} by the scheduler (or created by its {@link #threadFactory() thread factory})
+ * only run when given control. A thread gives up control whenever it blocks in one of the clock's sleeps, waits or parks --
+ * including the parks of the {@code java.util.concurrent} locks and queues, when the JDK is instrumented -- and control is
+ * then given to one of the threads that are ready to run. The clock is advanced to its next deadline only when all
+ * threads are blocked. Whenever several threads are ready, e.g., when they were woken by the same deadline, the next
+ * to run is chosen by a pseudo-random order determined by the seed, so a run can be reproduced by running it with the
+ * same seed, and different interleavings can be explored with different seeds.
+ * <p>
+ * Only the interactions the clock sees are scheduled deterministically: threads must not block in operations that don't
+ * go through the clock -- such as monitor entry, an untimed {@code Object.wait()} or I/O -- while another thread needs
+ * to run to release them, and wakeups by {@code Thread.interrupt} or {@code Object.notify} are only seen when the woken
+ * thread resumes. Timed waits on {@code java.util.concurrent} conditions are scheduled deterministically only on JDK 17+,
+ * where the JDK's conditions park through the clock. Time is advanced only by the scheduler, so the clock must not be
+ * advanced by other means while it is running.
+ *
+ * @author pron
+ */
+public final class DeterministicScheduler {
+    private final ManualClock clock;
+    private final long seed;
+    private final ConcurrentMap<Thread, Actor> actors = new ConcurrentHashMap<>();
+    private final PriorityQueue<Actor> ready = new PriorityQueue<>(16, new Comparator<Actor>() {
+        @Override
+        public int compare(Actor a, Actor b) {
+            final int c = Long.compare(a.key, b.key);
+            return c != 0 ? c : Integer.compare(a.id, b.id);
+        }
+    });
+    // all guarded by this
+    private int ids;
+    private int live;     // threads spawned and not yet terminated
+    private int pending;  // threads woken that haven't resumed yet
+    private Actor running;
+    private boolean started;
+    private boolean done;
+    private RuntimeException failure;
+
+    /**
+     * Creates a scheduler that advances the given clock.
+     *
+     * @param clock the clock; must not be in {@link ManualClock#setAutoAdvance(boolean) auto-advance} mode
+     * @param seed  the seed determining the order in which ready threads run
+     */
+    public DeterministicScheduler(ManualClock clock, long seed) {
+        this.clock = clock;
+        this.seed = seed;
+        clock.attach(this);
+    }
+
+    /**
+     * Returns the seed determining the order in which ready threads run.
+     */
+    public long getSeed() {
+        return seed;
+    }
+
+    @Override
+    public String toString() {
+        return "DeterministicScheduler{seed=" + seed + " clock=" + clock + '}';
+    }
+
+    /**
+     * Starts a new thread run by this scheduler. The thread runs under this scheduler's clock.
+     * Must be called before {@link #run() run}, or by a thread run by this scheduler.
+     *
+     * @param name the thread's name
+     * @param task the thread's task
+     * @return the thread
+     */
+    public Thread spawn(String name, Runnable task) {
+        final Thread thread = newThread(task);
+        thread.setName(name);
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * Returns a thread factory creating threads run by this scheduler (e.g. for thread pools used by the simulation).
+     * The threads must be started either before {@link #run() run}, or by a thread run by this scheduler.
+     */
+    public ThreadFactory threadFactory() {
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable task) {
+                return DeterministicScheduler.this.newThread(task);
+            }
+        };
+    }
+
+    /**
+     * Runs the threads until they all terminate.
+     *
+     * @throws IllegalStateException if the threads deadlock, i.e., they're all blocked with no deadline to advance the clock to
+     */
+    public void run() throws InterruptedException {
+        synchronized (this) {
+            if (started)
+                throw new IllegalStateException("Already run");
+            started = true;
+            dispatch();
+            while (!done)
+                wait();
+            if (failure != null)
+                throw failure;
+        }
+    }
+
+    private Thread newThread(final Runnable task) {
+        final Actor actor = new Actor();
+        final Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                VirtualClock.setForCurrentThread(clock);
+                unblock(); // wait to be run
+                try {
+                    task.run();
+                } finally {
+                    exit(actor);
+                }
+            }
+        });
+        thread.setDaemon(true); // the threads of a deadlocked simulation never terminate
+        synchronized (this) {
+            actor.id = ids++;
+            actor.thread = thread;
+            actor.blocked = true;
+            actor.pending = true; // until it first runs
+            pending++;
+            live++;
+        }
+        actors.put(thread, actor);
+        return thread;
+    }
+
+    /**
+     * Called by the clock when the current thread is about to block.
+     *
+     * @param park whether the thread is about to park, and will therefore resume when unparked
+     */
+    void block(boolean park) {
+        final Actor a = actors.get(Thread.currentThread());
+        if (a == null)
+            return;
+        synchronized (this) {
+            a.blocked = true;
+            a.parked = park;
+            if (park && a.permit) { // the park will return immediately
+                a.permit = false;
+                setPending(a);
+            }
+            if (running == a) {
+                running = null;
+                a.granted = false;
+                dispatch();
+            }
+        }
+    }
+
+    /**
+     * Called by the clock when the current thread has resumed after blocking; waits until the thread is given control.
+     */
+    void unblock() {
+        final Actor a = actors.get(Thread.currentThread());
+        if (a == null)
+            return;
+        synchronized (this) {
+            a.blocked = false;
+            if (running == a)
+                return;
+            if (a.pending) {
+                a.pending = false;
+                pending--;
+            }
+            a.key = key(a.id, a.resumptions++);
+            ready.add(a);
+            dispatch();
+        }
+        synchronized (a) {
+            boolean interrupted = false;
+            while (!a.granted) {
+                try {
+                    a.wait(); // doesn't consume the thread's park permit, unlike LockSupport.park
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Called by the clock before it wakes the given thread, by firing its waiter or by unparking it.
+     *
+     * @param fired whether the thread's waiter has fired, rather than the thread being unparked
+     */
+    void wake(Thread thread, boolean fired) {
+        final Actor a = actors.get(thread);
+        if (a == null)
+            return;
+        synchronized (this) {
+            if (a.blocked && (fired || a.parked))
+                setPending(a);
+            else if (!fired)
+                a.permit = true; // its next park will return immediately
+        }
+    }
+
+    private void setPending(Actor a) {
+        if (!a.pending) {
+            a.pending = true;
+            pending++;
+        }
+    }
+
+    private synchronized void exit(Actor a) {
+        actors.remove(a.thread);
+        live--;
+        if (running == a) {
+            running = null;
+            dispatch();
+        }
+    }
+
+    /**
+     * Gives control to the next ready thread, once no thread is running and all woken threads have resumed.
+     * If all threads are blocked, advances the clock.
+     */
+    private void dispatch() {
+        while (started && !done && running == null && pending == 0) {
+            final Actor next = ready.poll();
+            if (next != null) {
+                running = next;
+                synchronized (next) {
+                    next.granted = true;
+                    next.notify();
+                }
+                return;
+            }
+            if (live == 0) {
+                finish(null);
+                return;
+            }
+            final long deadline = clock.nextDeadline();
+            if (deadline < 0) {
+                finish(new IllegalStateException("Deadlock: all " + live + " threads are blocked with no deadline"));
+                return;
+            }
+            if (deadline > clock.nanoTime())
+                clock.advanceTo(deadline, TimeUnit.NANOSECONDS); // wakes the waiters, making them pending
+            else
+                clock.wakeupExpired();
+        }
+    }
+
+    private void finish(RuntimeException failure) {
+        this.done = true;
+        this.failure = failure;
+        notifyAll();
+    }
+
+    /**
+     * The priority of a thread's n-th resumption: a pseudo-random function of the seed, the thread and n.
+     */
+    private long key(int id, long n) {
+        long z = seed + id * 0x9E3779B97F4A7C15L + n * 0xC2B2AE3D27D4EB4FL; // splitmix64's finalizer
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    private static final class Actor {
+        int id;
+        Thread thread;
+        long key;
+        long resumptions;
+        boolean blocked; // guarded by the scheduler
+        boolean parked;  // whether blocked in a park
+        boolean pending; // woken, and not yet resumed
+        boolean permit;  // unparked while not parked
+        volatile boolean granted;
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2015-2016, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are license under the terms of the
+ * MIT license.
+ */
+package co.paralleluniverse.vtime;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+
+/**
+ * The trampolines called by classes bound to a {@link ClockDomain}. Each is the {@link Clock_} method of the same name,
+ * with the id of the caller's domain as an additional, last, parameter.
+ */
+public final class Domain_ {
+    private Domain_() {
+    }
+
+    public static long System_currentTimeMillis(int domain) {
+        return ClockDomain.clock(domain).System_currentTimeMillis();
+    }
+
+    public static long System_nanoTime(int domain) {
+        return ClockDomain.clock(domain).System_nanoTime();
+    }
+
+    public static void Object_wait(Object obj, long timeout, int domain) throws InterruptedException {
+        ClockDomain.clock(domain).Object_wait(obj, timeout);
+    }
+
+    public static void Object_wait(Object obj, long timeout, int nanos, int domain) throws InterruptedException {
+        ClockDomain.clock(domain).Object_wait(obj, timeout, nanos);
+    }
+
+    public static void Thread_sleep(long millis, int domain) throws InterruptedException {
+        ClockDomain.clock(domain).Thread_sleep(millis);
+    }
+
+    public static void Thread_sleep(long millis, int nanos, int domain) throws InterruptedException {
+        ClockDomain.clock(domain).Thread_sleep(millis, nanos);
+    }
+
+    public static void Unsafe_park(sun.misc.Unsafe unsafe, boolean isAbsolute, long timeout, int domain) {
+        ClockDomain.clock(domain).Unsafe_park(unsafe, isAbsolute, timeout);
+    }
+
+    public static void Unsafe_park(Object unsafe, boolean isAbsolute, long timeout, int domain) {
+        ClockDomain.clock(domain).Unsafe_park(UNSAFE, isAbsolute, timeout);
+    }
+
+    public static void LockSupport_park(int domain) {
+        ClockDomain.clock(domain).LockSupport_park(null);
+    }
+
+    public static void LockSupport_park(Object blocker, int domain) {
+        ClockDomain.clock(domain).LockSupport_park(blocker);
+    }
+
+    public static void LockSupport_unpark(Thread thread, int domain) {
+        ClockDomain.clock(domain).LockSupport_unpark(thread);
+    }
+
+    public static void LockSupport_parkNanos(long nanos, int domain) {
+        ClockDomain.clock(domain).LockSupport_parkNanos(null, nanos);
+    }
+
+    public static void LockSupport_parkNanos(Object blocker, long nanos, int domain) {
+        ClockDomain.clock(domain).LockSupport_parkNanos(blocker, nanos);
+    }
+
+    public static void LockSupport_parkUntil(long deadline, int domain) {
+        ClockDomain.clock(domain).LockSupport_parkUntil(null, deadline);
+    }
+
+    public static void LockSupport_parkUntil(Object blocker, long deadline, int domain) {
+        ClockDomain.clock(domain).LockSupport_parkUntil(blocker, deadline);
+    }
+
+    public static long Condition_awaitNanos(Condition cond, long nanosTimeout, int domain) throws InterruptedException {
+        return ClockDomain.clock(domain).Condition_awaitNanos(cond, nanosTimeout);
+    }
+
+    public static boolean Condition_await(Condition cond, long time, TimeUnit unit, int domain) throws InterruptedException {
+        return ClockDomain.clock(domain).Condition_await(cond, time, unit);
+    }
+
+    private static final sun.misc.Unsafe UNSAFE = UtilUnsafe.getUnsafe();
+}
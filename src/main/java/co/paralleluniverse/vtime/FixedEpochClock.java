@@ -1,5 +1,7 @@
 package co.paralleluniverse.vtime;
 
+import java.util.concurrent.locks.Condition;
+
 /**
  * Clock instance that has a fixed epoch. By default will return a continuously-running 
  * system clock from a fixed time base.
@@ -67,6 +69,31 @@ public final class FixedEpochClock extends Clock {
 
     @Override
     void Unsafe_park(sun.misc.Unsafe unsafe, boolean isAbsolute, long timeout) {
-        baseClock.Unsafe_park(unsafe, isAbsolute, timeout);
+        baseClock.Unsafe_park(unsafe, isAbsolute, isAbsolute ? timeout - offset : timeout); // a deadline is in this clock's epoch
+    }
+
+    @Override
+    void LockSupport_park(Object blocker) {
+        baseClock.LockSupport_park(blocker);
+    }
+
+    @Override
+    void LockSupport_unpark(Thread thread) {
+        baseClock.LockSupport_unpark(thread);
+    }
+
+    @Override
+    void LockSupport_parkNanos(Object blocker, long nanos) {
+        baseClock.LockSupport_parkNanos(blocker, nanos);
+    }
+
+    @Override
+    void LockSupport_parkUntil(Object blocker, long deadline) {
+        baseClock.LockSupport_parkUntil(blocker, deadline - offset);
+    }
+
+    @Override
+    long Condition_awaitNanos(Condition cond, long nanosTimeout) throws InterruptedException {
+        return baseClock.Condition_awaitNanos(cond, nanosTimeout);
     }
 }
@@ -6,19 +6,106 @@
  */
 package co.paralleluniverse.vtime;
 
+import java.io.File;
+import java.io.IOException;
 import java.lang.instrument.Instrumentation;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.URISyntaxException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.jar.JarFile;
 
+/**
+ * The agent's arguments are a comma-separated list of options, each either {@code name=value} or a bare {@code name}:
+ * <ul>
+ * <li>{@code sharedClock=FILE} -- install a global {@link SharedClock}, following the time shared through the given file.</li>
+ * <li>{@code slowdown=N} -- install a global {@link ScaledClock} that slows down the system clock by a factor of N.
+ * A bare integer argument (e.g. {@code -javaagent:timewarp.jar=3}) means the same.</li>
+ * <li>{@code coarse=N} -- install a global {@link CoarseClock} that updates the time every N milliseconds
+ * (of the scaled clock, if {@code slowdown} is also given).</li>
+ * <li>{@code record=DIR} -- record the times read by each thread into a log in the given directory (see {@link RecordingClock}).</li>
+ * <li>{@code replay=DIR} -- replay the times recorded in the given directory (see {@link ReplayClock}).</li>
+ * <li>{@code indy} -- rewrite time calls into {@code invokedynamic} call sites (see {@link ClockLinker}).</li>
+ * <li>{@code cache} -- cache the most recently instrumented classes in memory, shared by all class loaders.</li>
+ * <li>{@code cacheDir=DIR} -- cache instrumented classes in memory and in the given directory, shared by all JVMs using it.</li>
+ * <li>{@code include=PREFIXES}, {@code exclude=PREFIXES} -- only instrument (or don't instrument) classes in the given packages
+ * and their sub-packages; prefixes are separated by {@code ;}. The longest matching prefix wins.</li>
+ * <li>{@code filterFile=FILE} -- read include and exclude prefixes from a file with lines of the form {@code include PREFIX} or {@code exclude PREFIX}.</li>
+ * <li>{@code retransform} -- retransform classes loaded before the agent. Always done when the agent is attached to a running JVM.</li>
+ * <li>{@code retransformBatch=N} -- the number of classes retransformed at once (default 32).</li>
+ * <li>{@code metrics} -- count the calls to each intercepted method; {@code metrics=sites} counts them per call site as well.
+ * The counts are exposed by the {@link TimewarpMXBean}.</li>
+ * </ul>
+ * The filter and metrics options may also be given as the system properties {@code timewarp.include}, {@code timewarp.exclude},
+ * {@code timewarp.filterFile} and {@code timewarp.metrics}.
+ * <p>
+ * When retransforming, the agent's JAR is appended to the bootstrap class path, if it isn't already on it.
+ * <p>
+ * On JDK 9 and later, when the agent's JAR is on the bootstrap class path, the JDK's own classes (which time out through
+ * {@code jdk.internal.misc.Unsafe}) are instrumented, too: all modules are made to read the bootstrap class path, and
+ * the JDK classes loaded before the agent are retransformed before {@code main} starts.
+ */
 public final class JavaAgent {
 
-    public static void premain(String agentArguments, Instrumentation instrumentation) {
-        System.err.println("NOTE: VIRTUAL TIME IN EFFECT");
-        instrumentation.addTransformer(new VirtualTimeClassTransformer());
-        
-        if (agentArguments != null && !agentArguments.isEmpty()) {
-            final double scale = 1.0 / Integer.parseInt(agentArguments);
-            System.err.println("SCALING CLOCK by " + scale);
-            VirtualClock.setGlobal(new ScaledClock(scale));
+    public static void premain(String agentArguments, Instrumentation instrumentation) throws Exception {
+        final Map<String, String> options = parseOptions(agentArguments);
+        start(options, instrumentation, options.containsKey("retransform"));
+    }
+
+    public static void agentmain(String agentArguments, Instrumentation instrumentation) throws Exception {
+        start(parseOptions(agentArguments), instrumentation, true);
+    }
+
+    // This class must not refer to any other timewarp class, as that might load them in the system class loader
+    // before the agent's JAR is appended to the bootstrap class path.
+    private static void start(Map<String, String> options, Instrumentation instrumentation, boolean retransform) throws Exception {
+        ClassLoader loader = JavaAgent.class.getClassLoader();
+        if (retransform && loader != null) {
+            // the retransformed classes, which include bootstrap classes, must be able to link to Clock_
+            appendToBootstrapClassPath(instrumentation);
+            loader = null;
+        }
+
+        final Method install = Class.forName(JavaAgent.class.getPackage().getName() + ".AgentInstaller", true, loader)
+                .getDeclaredMethod("install", Map.class, Instrumentation.class, boolean.class);
+        install.setAccessible(true);
+        try {
+            install.invoke(null, options, instrumentation, retransform);
+        } catch (InvocationTargetException e) {
+            final Throwable t = e.getCause();
+            if (t instanceof Exception)
+                throw (Exception) t;
+            throw (Error) t;
+        }
+    }
+
+    private static void appendToBootstrapClassPath(Instrumentation instrumentation) throws IOException {
+        try {
+            final File jar = new File(JavaAgent.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+            instrumentation.appendToBootstrapClassLoaderSearch(new JarFile(jar));
+        } catch (URISyntaxException e) {
+            throw new IOException(e);
+        }
+    }
+
+    static Map<String, String> parseOptions(String agentArguments) {
+        final Map<String, String> options = new HashMap<>();
+        if (agentArguments == null || agentArguments.isEmpty())
+            return options;
+        for (String option : agentArguments.split(",")) {
+            option = option.trim();
+            if (option.isEmpty())
+                continue;
+            final int eq = option.indexOf('=');
+            if (eq >= 0)
+                options.put(option.substring(0, eq).trim(), option.substring(eq + 1).trim());
+            else if (Character.isDigit(option.charAt(0)))
+                options.put("slowdown", option); // the original, single-integer form
+            else
+                options.put(option, "true");
         }
+        return options;
     }
 
     private JavaAgent() {
@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2015-2016, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are license under the terms of the
+ * MIT license.
+ */
+package co.paralleluniverse.vtime;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.Objects;
+
+/**
+ * A {@code java.time.Clock} backed by a {@link Clock}, or, if none is given, by the clock in effect for the calling
+ * thread in the given {@link ClockDomain}, or, if none is given either, as returned by {@link VirtualClock#get()}.
+ *
+ * @author pron
+ */
+final class JavaTimeClock extends java.time.Clock {
+    private final Clock clock;
+    private final ClockDomain domain;
+    private final ZoneId zone;
+
+    JavaTimeClock(Clock clock, ZoneId zone) {
+        this(clock, null, zone);
+    }
+
+    JavaTimeClock(Clock clock, ClockDomain domain, ZoneId zone) {
+        this.clock = clock;
+        this.domain = domain;
+        this.zone = zone;
+    }
+
+    private Clock clock() {
+        return clock != null ? clock : domain != null ? domain.current() : VirtualClock.get();
+    }
+
+    @Override
+    public ZoneId getZone() {
+        return zone;
+    }
+
+    @Override
+    public java.time.Clock withZone(ZoneId zone) {
+        return zone.equals(this.zone) ? this : new JavaTimeClock(clock, domain, zone);
+    }
+
+    @Override
+    public long millis() {
+        return clock().currentTimeMillis();
+    }
+
+    @Override
+    public Instant instant() {
+        return JavaTime_.instant(clock());
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof JavaTimeClock))
+            return false;
+        final JavaTimeClock other = (JavaTimeClock) obj;
+        return Objects.equals(clock, other.clock) && domain == other.domain && zone.equals(other.zone);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(clock) ^ Objects.hashCode(domain) ^ zone.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return "JavaTimeClock{clock=" + (clock != null ? clock : domain != null ? domain : "virtual") + " zone=" + zone + '}';
+    }
+}
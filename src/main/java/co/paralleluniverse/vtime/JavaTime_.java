@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2015-2016, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are license under the terms of the
+ * MIT license.
+ */
+package co.paralleluniverse.vtime;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.Objects;
+
+/**
+ * The trampolines replacing the {@code java.time} system clocks.
+ * <p>
+ * {@link VirtualTimeClassTransformer} rewrites {@code java.time.Clock.systemUTC()}, {@code systemDefaultZone()} and
+ * {@code system(zone)} into calls to this class, and the {@code now()} and {@code now(zone)} factories of the
+ * {@code java.time} types into calls to their {@code now(clock)} factory with one of these clocks.
+ * <p>
+ * This class, unlike the rest of the library, requires Java 8; it is only loaded by code that uses {@code java.time}.
+ */
+public final class JavaTime_ {
+    private static final long NANOS_PER_SECOND = 1000000000L;
+    private static final java.time.Clock UTC = new JavaTimeClock(null, ZoneOffset.UTC);
+
+    private JavaTime_() {
+    }
+
+    public static java.time.Clock Clock_systemUTC() {
+        return UTC;
+    }
+
+    public static java.time.Clock Clock_systemDefaultZone() {
+        return new JavaTimeClock(null, ZoneId.systemDefault());
+    }
+
+    public static java.time.Clock Clock_system(ZoneId zone) {
+        return new JavaTimeClock(null, Objects.requireNonNull(zone, "zone"));
+    }
+
+    // the same, for classes bound to a ClockDomain
+
+    public static java.time.Clock Clock_systemUTC(int domain) {
+        return new JavaTimeClock(null, ClockDomain.get(domain), ZoneOffset.UTC);
+    }
+
+    public static java.time.Clock Clock_systemDefaultZone(int domain) {
+        return new JavaTimeClock(null, ClockDomain.get(domain), ZoneId.systemDefault());
+    }
+
+    public static java.time.Clock Clock_system(ZoneId zone, int domain) {
+        return new JavaTimeClock(null, ClockDomain.get(domain), Objects.requireNonNull(zone, "zone"));
+    }
+
+    /**
+     * Returns a {@code java.time.Clock} in the UTC time zone backed by the given clock.
+     */
+    static java.time.Clock utc(Clock clock) {
+        return new JavaTimeClock(clock, ZoneOffset.UTC);
+    }
+
+    /**
+     * Returns the given clock's current instant. The system clock's instant has the JDK's full precision.
+     */
+    static Instant instant(Clock clock) {
+        if (clock == SystemClock.instance())
+            return Instant.now();
+        final long nanos = clock.epochNanos();
+        return Instant.ofEpochSecond(Math.floorDiv(nanos, NANOS_PER_SECOND), Math.floorMod(nanos, NANOS_PER_SECOND));
+    }
+}
@@ -6,30 +6,97 @@
  */
 package co.paralleluniverse.vtime;
 
-import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.AbstractQueuedLongSynchronizer;
+import java.util.concurrent.locks.AbstractQueuedSynchronizer;
+import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.LockSupport;
 
 /**
- * A clock that only progresses when its time is manually advanced by calls to {@link #advance(long, TimeUnit) advance}.
+ * A clock that only progresses when its time is manually advanced by calls to {@link #advance(long, TimeUnit) advance}
+ * or {@link #advanceTo(long, TimeUnit) advanceTo}.
+ * <p>
+ * Advancing the clock is lock-free, and may be done by several threads concurrently. Waking up the threads whose
+ * sleep, wait or park has expired is done cooperatively by all advancing threads.
+ * <p>
+ * The sleeping, waiting and parked threads are kept in a {@link WaiterStore waiter store}, which may be selected
+ * according to the expected number of waiters.
+ * <p>
+ * Threads may be {@link #register(Thread) registered} with the clock, so that the clock can tell when they are all
+ * blocked waiting for time to pass. The clock can then be advanced directly to the next deadline -- either
+ * {@link #setAutoAdvance(boolean) automatically}, or by a driver thread calling {@link #runUntilIdle() runUntilIdle} or
+ * {@link #runFor(long, TimeUnit) runFor} -- running timeout-driven code as a discrete-event simulation.
+ * <p>
+ * Each thread reuses a single waiter record for all of its sleeps, waits and parks, so with the
+ * {@link WaiterStore#TIMING_WHEEL timing wheel}, whose entries are linked intrusively, timed parks and sleeps don't
+ * allocate once the thread has performed its first one.
  *
  * @author pron
  */
 public final class ManualClock extends Clock {
-    private final Queue<Scheduled> waiters = new ConcurrentSkipListPriorityQueue<>();
+    /**
+     * The data structure holding a {@code ManualClock}'s sleeping, waiting and parked threads.
+     */
+    public enum WaiterStore {
+        /**
+         * A lock-free skip list, with {@code O(log n)} insertion.
+         */
+        SKIP_LIST,
+        /**
+         * A hierarchical timing wheel, with {@code O(1)} insertion and expiration; suitable for large numbers of waiters.
+         */
+        TIMING_WHEEL
+    }
+
+    private static final long DRIVER_POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final DeadlineQueue<Scheduled> waiters;
     private final long startTime;
     private volatile long nanos;
+    private final ConcurrentMap<Thread, Boolean> registered = new ConcurrentHashMap<>();
+    private final AtomicInteger registeredCount = new AtomicInteger();
+    private final AtomicInteger blockedCount = new AtomicInteger(); // registered threads blocked in this clock
+    private volatile boolean autoAdvance;
+    private volatile Thread driver; // the thread in runUntilIdle/runFor
+    private volatile DeterministicScheduler scheduler; // notified when its threads block and wake
+    private final ThreadLocal<Scheduled> waiter = new ThreadLocal<>();
+    static volatile boolean conditionsPark; // whether Condition.await parks through the clock (set by the agent)
 
     /**
      * Creates a new {@code ManualClock} instance.
      *
      * @param startTime the initial time which will be returned by {@code System.currentTimeMillis()}.
+     * @param store     the data structure holding the waiting threads
      */
-    public ManualClock(long startTime) {
+    public ManualClock(long startTime, WaiterStore store) {
         if (startTime < 0)
             throw new IllegalArgumentException("startTime must be >= 0; was " + startTime);
         this.startTime = startTime;
         this.nanos = 0;
+        switch (store) {
+            case SKIP_LIST:
+                this.waiters = new SkipListDeadlineQueue<>();
+                break;
+            case TIMING_WHEEL:
+                this.waiters = new TimingWheel<>(nanos);
+                break;
+            default:
+                throw new AssertionError(store);
+        }
+    }
+
+    /**
+     * Creates a new {@code ManualClock} instance.
+     * <p>
+     * Same as {@link #ManualClock(long, WaiterStore) ManualClock(startTime, WaiterStore.SKIP_LIST)}.
+     *
+     * @param startTime the initial time which will be returned by {@code System.currentTimeMillis()}.
+     */
+    public ManualClock(long startTime) {
+        this(startTime, WaiterStore.SKIP_LIST);
     }
 
     /**
@@ -52,20 +119,262 @@ public final class ManualClock extends Clock {
      * @param duration the time duration
      * @param unit     the time duration's unit
      */
-    public synchronized void advance(long duration, TimeUnit unit) {
+    public void advance(long duration, TimeUnit unit) {
         if (duration <= 0)
             throw new IllegalArgumentException("Duration must be positive; was " + duration);
+        final long delta = unit.toNanos(duration);
 
-        this.nanos += unit.toNanos(duration);
+        long current;
+        do {
+            current = nanos;
+        } while (!casNanos(current, current + delta));
 
-        for (;;) {
-            Scheduled s = waiters.peek();
-            if (s == null || s.deadline > nanos)
-                break;
-            // at this point we know there are runnable waiters
-            // new ones won't be added because we've already advanced nanos
-            waiters.poll().wakeup();
+        wakeupExpired();
+    }
+
+    /**
+     * Advances this clock's time to the given time, as returned by {@link #nanoTime() nanoTime}.
+     * If the clock's time is already at or past the given time, this method does nothing, so this clock never goes back in time.
+     * 
+     * @param time the time
+     * @param unit the time's unit
+     */
+    public void advanceTo(long time, TimeUnit unit) {
+        final long target = unit.toNanos(time);
+
+        long current;
+        do {
+            current = nanos;
+            if (target <= current)
+                return;
+        } while (!casNanos(current, target));
+
+        wakeupExpired();
+    }
+
+    /**
+     * Registers a thread with this clock, so that the clock knows when the thread is blocked.
+     * When all registered threads are blocked in this clock's sleeps, waits or parks, the clock is <i>idle</i>, and may be
+     * advanced to its {@link #nextDeadline() next deadline} automatically (see {@link #setAutoAdvance(boolean) setAutoAdvance}),
+     * or by {@link #runUntilIdle() runUntilIdle} or {@link #runFor(long, TimeUnit) runFor}.
+     * <p>
+     * Note that threads blocked in operations that don't go through the clock, such as monitor entry or an untimed
+     * {@code Object.wait()}, count as running.
+     *
+     * @param thread the thread
+     */
+    public void register(Thread thread) {
+        if (registered.putIfAbsent(thread, Boolean.TRUE) == null)
+            registeredCount.incrementAndGet();
+    }
+
+    /**
+     * Unregisters a thread previously {@link #register(Thread) registered} with this clock.
+     * A thread must be unregistered when it terminates, or is no longer using this clock, as otherwise the clock never becomes idle.
+     *
+     * @param thread the thread
+     */
+    public void unregister(Thread thread) {
+        if (registered.remove(thread) != null) {
+            registeredCount.decrementAndGet();
+            onBlocked();
+        }
+    }
+
+    /**
+     * Sets the auto-advance mode.
+     * In auto-advance mode, whenever all {@link #register(Thread) registered} threads become blocked in this clock's
+     * sleeps, waits or parks, the clock is immediately advanced to the earliest deadline, waking its waiters.
+     *
+     * @param autoAdvance whether auto-advance mode is on
+     */
+    public void setAutoAdvance(boolean autoAdvance) {
+        if (autoAdvance && scheduler != null)
+            throw new IllegalStateException("This clock is advanced by " + scheduler);
+        this.autoAdvance = autoAdvance;
+        if (autoAdvance)
+            onBlocked();
+    }
+
+    /**
+     * Returns the earliest deadline of a sleeping, waiting or parked thread, as a value of {@link #nanoTime() nanoTime},
+     * or {@code -1} if there are none.
+     */
+    public long nextDeadline() {
+        return waiters.nextDeadline();
+    }
+
+    /**
+     * Repeatedly waits until all {@link #register(Thread) registered} threads are blocked, and then advances the clock
+     * to the next deadline, until there are no more deadlines.
+     * Must not be called by a registered thread.
+     */
+    public void runUntilIdle() throws InterruptedException {
+        run(Long.MAX_VALUE);
+    }
+
+    /**
+     * Repeatedly waits until all {@link #register(Thread) registered} threads are blocked, and then advances the clock
+     * to the next deadline, until the clock has advanced by the given duration.
+     * Must not be called by a registered thread.
+     *
+     * @param duration the time duration
+     * @param unit     the time duration's unit
+     */
+    public void runFor(long duration, TimeUnit unit) throws InterruptedException {
+        if (duration <= 0)
+            throw new IllegalArgumentException("Duration must be positive; was " + duration);
+        final long end = deadline(unit.toNanos(duration));
+        run(end);
+        advanceTo(end, TimeUnit.NANOSECONDS);
+    }
+
+    private void run(long end) throws InterruptedException {
+        if (registered.containsKey(Thread.currentThread()))
+            throw new IllegalStateException("Must not be called by a registered thread");
+        driver = Thread.currentThread();
+        try {
+            for (;;) {
+                while (!isIdle()) {
+                    UNSAFE.park(false, DRIVER_POLL_NANOS); // not LockSupport, which may itself be virtualized
+                    if (Thread.interrupted())
+                        throw new InterruptedException();
+                }
+                final long next = nextDeadline();
+                if (next < 0 || next > end)
+                    return;
+                advanceTo(next, TimeUnit.NANOSECONDS);
+            }
+        } finally {
+            driver = null;
+        }
+    }
+
+    /**
+     * Attaches the deterministic scheduler that advances this clock.
+     */
+    synchronized void attach(DeterministicScheduler scheduler) {
+        if (this.scheduler != null)
+            throw new IllegalStateException("This clock is already advanced by " + this.scheduler);
+        if (autoAdvance)
+            throw new IllegalStateException("This clock is in auto-advance mode");
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Whether all registered threads are blocked in this clock's sleeps, waits or parks.
+     */
+    boolean isIdle() {
+        return blockedCount.get() >= registeredCount.get();
+    }
+
+    /**
+     * Called whenever a registered thread blocks. If the clock has become idle, it is advanced or its driver is notified.
+     */
+    private void onBlocked() {
+        if (!isIdle())
+            return;
+        final Thread d = driver;
+        if (d != null)
+            UNSAFE.unpark(d);
+        if (autoAdvance) {
+            while (isIdle() && registeredCount.get() > 0) {
+                final long next = nextDeadline();
+                if (next < 0)
+                    break; // deadlock: all registered threads are blocked indefinitely
+                advanceTo(next, TimeUnit.NANOSECONDS);
+            }
+        }
+    }
+
+    private void block(Scheduled s) {
+        if (s.tracked) {
+            blockedCount.incrementAndGet();
+            onBlocked();
+        }
+    }
+
+    /**
+     * Disposes of a waiter whose thread has returned, whether or not it has been fired.
+     */
+    private void unblock(Scheduled s) {
+        if (!cancel(s))
+            fired(s);
+    }
+
+    /**
+     * Called by the waiting thread when its waiter has been fired by wakeupExpired.
+     * Waits for the firing to complete, clears the interrupt it may have delivered, and releases the waiter.
+     */
+    private void fired(Scheduled s) {
+        s.awaitFired();
+        if (s.interrupt)
+            Thread.interrupted();
+        s.release();
+    }
+
+    /**
+     * Cancels a waiter whose thread has returned before its deadline, and removes it from the waiters.
+     *
+     * @return {@code false} if the waiter has already been fired by wakeupExpired.
+     */
+    private boolean cancel(Scheduled s) {
+        if (!s.cancel())
+            return false;
+        if (s.tracked) // wakeupExpired would otherwise have decremented blockedCount
+            blockedCount.decrementAndGet();
+        if (waiters.remove(s)) // otherwise, the waiters may still reference s, so it can't be reused
+            s.release();
+        return true;
+    }
+
+    /**
+     * Wakes up all waiters whose deadline has passed.
+     * May be called concurrently by several threads, each helping to wake the waiters.
+     */
+    void wakeupExpired() {
+        final DeterministicScheduler sc = scheduler;
+        for (Scheduled s; (s = waiters.pollExpired(nanos)) != null;) {
+            if (s.fire()) {
+                if (s.tracked)
+                    blockedCount.decrementAndGet();
+                if (sc != null)
+                    sc.wake(s.thread, true);
+                s.wakeup();
+                s.fired();
+            }
+        }
+    }
+
+    /**
+     * Returns the deadline {@code timeout} nanoseconds from now, saturated at {@code Long.MAX_VALUE}.
+     */
+    private long deadline(long timeout) {
+        final long now = nanos;
+        return timeout < Long.MAX_VALUE - now ? now + timeout : Long.MAX_VALUE;
+    }
+
+    /**
+     * Returns the current thread's waiter, armed with the given deadline.
+     * A new waiter is only created if the previous one is still referenced by the waiters, or is in use by an
+     * enclosing call.
+     */
+    private Scheduled waiter(long deadline, boolean interrupt) {
+        Scheduled s = waiter.get();
+        if (s == null || !s.isReleased()) {
+            s = new Scheduled(Thread.currentThread());
+            waiter.set(s);
         }
+        s.arm(deadline, interrupt);
+        return s;
+    }
+
+    private void schedule(Scheduled s) {
+        s.tracked = registered.containsKey(s.thread);
+        waiters.add(s);
+        if (s.deadline <= nanos) // the clock was advanced past the deadline before s was added
+            wakeupExpired();
+        block(s);
     }
 
     @Override
@@ -78,25 +387,32 @@ public final class ManualClock extends Clock {
         return nanos;
     }
 
+    @Override
+    long epochNanos() {
+        return startTime * 1000000L + nanos;
+    }
+
     @Override
     void Object_wait(Object obj, long timeout) throws InterruptedException {
         if (timeout <= 0)
             obj.wait(timeout);
         else {
-            final long deadline = nanos + TimeUnit.MILLISECONDS.toNanos(timeout);
+            final Scheduled s = waiter(deadline(TimeUnit.MILLISECONDS.toNanos(timeout)), true);
+            final DeterministicScheduler sc = scheduler;
             try {
-                InterruptScheduled s = interrupt(deadline, Thread.currentThread());
-                waiters.add(s);
+                schedule(s);
+                if (sc != null)
+                    sc.block(false);
                 obj.wait();
-
-                synchronized (this) {
-                    if (deadline < nanos)
-                        s.disable();
-                    else // advance was called between obj.wait and this synchronized block
-                        Thread.interrupted();
-                }
+                unblock(s);
             } catch (InterruptedException e) {
-                handleInterrupted(deadline, e);
+                handleInterrupted(s, e);
+            } catch (RuntimeException | Error e) { // e.g. IllegalMonitorStateException
+                unblock(s);
+                throw e;
+            } finally {
+                if (sc != null)
+                    sc.unblock();
             }
         }
     }
@@ -106,84 +422,267 @@ public final class ManualClock extends Clock {
         if (millis <= 0)
             Thread.sleep(millis);
         else {
-            final long deadline = nanos + TimeUnit.MILLISECONDS.toNanos(millis);
-            try {
-                waiters.add(interrupt(deadline, Thread.currentThread()));
-                Thread.sleep(Long.MAX_VALUE);
-            } catch (InterruptedException e) {
-                handleInterrupted(deadline, e);
+            // parks rather than sleeping indefinitely, which, on a virtual thread, would arm a JDK timer for each sleeper
+            if (Thread.interrupted())
+                throw new InterruptedException("sleep interrupted");
+            final long deadline = deadline(TimeUnit.MILLISECONDS.toNanos(millis));
+            final Scheduled s = waiter(deadline, false);
+            schedule(s);
+            while (nanos < deadline) {
+                park(this);
+                if (Thread.interrupted()) {
+                    if (cancel(s))
+                        throw new InterruptedException("sleep interrupted");
+                    fired(s); // the sleep has completed; the interrupt is left for the caller
+                    Thread.currentThread().interrupt();
+                    return;
+                }
             }
+            unblock(s);
         }
     }
 
     @Override
     void Unsafe_park(sun.misc.Unsafe unsafe, boolean isAbsolute, long timeout) {
-        if (timeout <= 0)
-            park(unsafe, isAbsolute, nanos);
-        else {
-            final long deadline = nanos + (isAbsolute ? TimeUnit.MILLISECONDS.toNanos(timeout - System_currentTimeMillis()) : timeout);
-            waiters.add(unpark(deadline, Thread.currentThread()));
-            if (nanos < deadline)
-                park(unsafe, false, 0L);
+        if (timeout <= 0) {
+            if (!isAbsolute) { // an indefinite park
+                final boolean counted = blockIndefinitely();
+                park(unsafe, isAbsolute, timeout);
+                unblockIndefinitely(counted);
+            } else
+                park(unsafe, isAbsolute, timeout);
+        } else {
+            parkUntil(null, deadline(isAbsolute ? TimeUnit.MILLISECONDS.toNanos(timeout - System_currentTimeMillis()) : timeout));
         }
     }
 
-    private void handleInterrupted(long deadline, InterruptedException e) throws InterruptedException {
+    @Override
+    void LockSupport_park(Object blocker) {
+        final boolean counted = blockIndefinitely();
+        LockSupport.park(blocker);
+        unblockIndefinitely(counted);
+    }
+
+    @Override
+    void LockSupport_unpark(Thread thread) {
+        final DeterministicScheduler sc = scheduler;
+        if (sc != null && thread != null)
+            sc.wake(thread, false);
+        LockSupport.unpark(thread);
+    }
+
+    @Override
+    void LockSupport_parkNanos(Object blocker, long timeout) {
+        if (timeout > 0)
+            parkUntil(blocker, deadline(timeout));
+    }
+
+    @Override
+    void LockSupport_parkUntil(Object blocker, long deadline) {
+        final long timeout = TimeUnit.MILLISECONDS.toNanos(deadline - System_currentTimeMillis());
+        if (timeout > 0)
+            parkUntil(blocker, deadline(timeout));
+    }
+
+    /**
+     * Parks the current thread until it is unparked, or until this clock reaches the given deadline.
+     * Parks with {@code LockSupport} -- which is also how the waiter unparks it -- rather than with {@code Unsafe.park},
+     * which would pin a virtual thread to its carrier.
+     */
+    private void parkUntil(Object blocker, long deadline) {
+        final Scheduled s = waiter(deadline, false);
+        schedule(s);
         if (nanos < deadline)
+            park(blocker);
+        unblock(s);
+    }
+
+    /**
+     * Parks the current thread, letting the deterministic scheduler, if any, run another thread in the meantime.
+     */
+    private void park(Object blocker) {
+        final DeterministicScheduler sc = scheduler;
+        if (sc != null)
+            sc.block(true);
+        LockSupport.park(blocker);
+        if (sc != null)
+            sc.unblock();
+    }
+
+    /**
+     * Called before the current thread parks with no deadline. A registered thread is counted as blocked,
+     * unless it's parking within one of this clock's timed waits, which already counts it.
+     *
+     * @return whether the thread has been counted as blocked
+     */
+    private boolean blockIndefinitely() {
+        final DeterministicScheduler sc = scheduler;
+        if (sc != null)
+            sc.block(true);
+        final Scheduled s = waiter.get();
+        if ((s != null && s.isWaiting()) || !registered.containsKey(Thread.currentThread()))
+            return false;
+        blockedCount.incrementAndGet();
+        onBlocked();
+        return true;
+    }
+
+    private void unblockIndefinitely(boolean counted) {
+        if (counted)
+            blockedCount.decrementAndGet();
+        final DeterministicScheduler sc = scheduler;
+        if (sc != null)
+            sc.unblock();
+    }
+
+    @Override
+    long Condition_awaitNanos(Condition cond, long nanosTimeout) throws InterruptedException {
+        if (nanosTimeout <= 0)
+            return cond.awaitNanos(nanosTimeout);
+        final long deadline = deadline(nanosTimeout);
+        final Scheduled s = waiter(deadline, true);
+        // unless await's own parks go through the clock, and give up control once it has released the lock
+        final DeterministicScheduler sc = parksThroughClock(cond) ? null : scheduler;
+        try {
+            schedule(s);
+            if (sc != null)
+                sc.block(false);
+            cond.await();
+            unblock(s);
+        } catch (InterruptedException e) {
+            handleInterrupted(s, e);
+        } catch (RuntimeException | Error e) { // e.g. IllegalMonitorStateException
+            unblock(s);
+            throw e;
+        } finally {
+            if (sc != null)
+                sc.unblock();
+        }
+        return deadline - nanos;
+    }
+
+    private static boolean parksThroughClock(Condition cond) {
+        return conditionsPark
+                && (cond instanceof AbstractQueuedSynchronizer.ConditionObject || cond instanceof AbstractQueuedLongSynchronizer.ConditionObject);
+    }
+
+    private void handleInterrupted(Scheduled s, InterruptedException e) throws InterruptedException {
+        if (cancel(s)) // we've been interrupted by someone other than wakeupExpired
             throw e;
-        Thread.interrupted();
+        fired(s);
     }
 
-    private abstract static class Scheduled implements Comparable<Scheduled> {
-        final long deadline;
+    /**
+     * A thread's waiter record, which wakes it up -- by an unpark or an interrupt -- when its deadline expires.
+     */
+    private static final class Scheduled extends Deadline {
+        private static final int RELEASED = 0;
+        private static final int WAITING = 1;
+        private static final int FIRING = 2;
+        private static final int FIRED = 3;
+        private static final int CANCELLED = 4;
+
         final Thread thread;
+        boolean interrupt; // whether to wake the thread by interrupting it rather than unparking it
+        boolean tracked;   // whether the thread is registered
+        private volatile int state;
 
-        public Scheduled(long deadline, Thread thread) {
-            this.deadline = deadline;
+        Scheduled(Thread thread) {
+            super(0L);
             this.thread = thread;
         }
 
-        @Override
-        public int compareTo(Scheduled o) {
-            return signum(deadline - o.deadline);
+        void arm(long deadline, boolean interrupt) {
+            this.deadline = deadline;
+            this.interrupt = interrupt;
+            this.seq = 0;
+            this.state = WAITING;
         }
 
-        public abstract void wakeup();
-    }
+        /**
+         * Claims this waiter for firing.
+         *
+         * @return {@code false} if it has been cancelled (or already fired).
+         */
+        boolean fire() {
+            return UNSAFE.compareAndSwapInt(this, stateOffset, WAITING, FIRING);
+        }
 
-    static int signum(long x) {
-        long y = (x & 0x7fffffffffffffffL) + 0x7fffffffffffffffL;
-        return (int) ((x >> 63) | (y >>> 63));
-    }
+        void fired() {
+            state = FIRED;
+        }
 
-    private Scheduled unpark(long deadline, Thread t) {
-        return new Scheduled(deadline, t) {
-            @Override
-            public void wakeup() {
-                LockSupport.unpark(thread);
-            }
-        };
-    }
+        /**
+         * Prevents this waiter from firing.
+         *
+         * @return {@code false} if it has already fired (or is firing).
+         */
+        boolean cancel() {
+            return UNSAFE.compareAndSwapInt(this, stateOffset, WAITING, CANCELLED);
+        }
 
-    private InterruptScheduled interrupt(long deadline, Thread t) {
-        return new InterruptScheduled(deadline, t);
-    }
+        @Override
+        boolean isCancelled() {
+            return state == CANCELLED;
+        }
 
-    private static class InterruptScheduled extends Scheduled {
-        private volatile boolean disabled;
+        void awaitFired() {
+            while (state != FIRED)
+                Thread.yield();
+        }
 
-        public InterruptScheduled(long deadline, Thread thread) {
-            super(deadline, thread);
+        /**
+         * Marks this waiter as no longer referenced by the waiters, so that it may be armed again.
+         */
+        void release() {
+            state = RELEASED;
         }
 
-        public void disable() {
-            disabled = true;
+        boolean isReleased() {
+            return state == RELEASED;
         }
 
-        @Override
-        public void wakeup() {
-            if (!disabled)
+        /**
+         * Whether the thread is within the timed wait this waiter was armed for, and is counted as blocked by it.
+         * A cancelled waiter may never be released, if the waiters can't remove it, so that's not implied by {@code !isReleased()}.
+         */
+        boolean isWaiting() {
+            final int st = state;
+            return st == WAITING || st == FIRING;
+        }
+
+        void wakeup() {
+            if (interrupt)
                 thread.interrupt();
+            else
+                LockSupport.unpark(thread);
+        }
+
+        private static final long stateOffset;
+
+        static {
+            try {
+                stateOffset = UNSAFE.objectFieldOffset(Scheduled.class.getDeclaredField("state"));
+            } catch (Exception e) {
+                throw new Error(e);
+            }
+        }
+    }
+
+    private boolean casNanos(long expect, long update) {
+        return UNSAFE.compareAndSwapLong(this, nanosOffset, expect, update);
+    }
+
+    // UNSAFE mechanics
+    private static final sun.misc.Unsafe UNSAFE;
+    private static final long nanosOffset;
+
+    static {
+        try {
+            UNSAFE = UtilUnsafe.getUnsafe();
+            nanosOffset = UNSAFE.objectFieldOffset(ManualClock.class.getDeclaredField("nanos"));
+        } catch (Exception e) {
+            throw new Error(e);
         }
     }
 }
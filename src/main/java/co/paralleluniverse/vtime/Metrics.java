@@ -0,0 +1,195 @@
+/*
+ * Copyright (c) 2015-2016, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are license under the terms of the
+ * MIT license.
+ */
+package co.paralleluniverse.vtime;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Counts the calls to the intercepted methods, per method and, optionally, per call site.
+ * <p>
+ * Counting is enabled by the agent's {@code metrics} option, in which case {@link VirtualTimeClassTransformer} assigns
+ * every rewritten call site a counter when it instruments it, and inserts a call to {@link #hit(int) hit} before it.
+ * Otherwise, no counting code is inserted, and this class isn't used. The counters are striped by thread, so that
+ * threads counting the same call site rarely contend.
+ *
+ * @author pron
+ */
+public final class Metrics {
+    private static final String NAME = "co.paralleluniverse:type=Timewarp";
+    private static final int HOT_CALL_SITES = 20;
+    private static final int STRIPES = stripes();
+    private static final int PAD = 8; // longs per cache line
+
+    private static volatile Counter[] counters = new Counter[0];
+    private static final Map<String, Integer> ids = new HashMap<>(); // guarded by Metrics.class
+    private static volatile boolean callSiteCounting;
+
+    /**
+     * Counts a call. Called by instrumented code.
+     *
+     * @param id the counter's id, as returned by {@link #counter(String, String) counter}
+     */
+    public static void hit(int id) {
+        counters[id].increment();
+    }
+
+    /**
+     * Enables metrics, and registers the {@link TimewarpMXBean}.
+     *
+     * @param callSites whether calls are counted per call site
+     */
+    static void enable(boolean callSites) {
+        callSiteCounting = callSites;
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new MXBean(), new ObjectName(NAME));
+        } catch (JMException e) {
+            System.err.println("WARNING: Could not register " + NAME + ": " + e);
+        }
+    }
+
+    /**
+     * Returns the id of the counter of the given method at the given call site, creating it if necessary.
+     *
+     * @param api      the name of the called method, as in {@link TimewarpMXBean#getApiCounts()}
+     * @param callSite the call site, or {@code null} to count all calls of the method together
+     */
+    static synchronized int counter(String api, String callSite) {
+        final String key = callSite != null ? api + ' ' + callSite : api;
+        Integer id = ids.get(key);
+        if (id == null) {
+            final Counter[] cs = Arrays.copyOf(counters, counters.length + 1);
+            id = cs.length - 1;
+            cs[id] = new Counter(api, callSite);
+            counters = cs;
+            ids.put(key, id);
+        }
+        return id;
+    }
+
+    static Map<String, Long> apiCounts() {
+        final Map<String, Long> counts = new TreeMap<>();
+        for (Counter c : counters) {
+            final Long count = counts.get(c.api);
+            counts.put(c.api, (count != null ? count : 0L) + c.sum());
+        }
+        return counts;
+    }
+
+    static List<TimewarpMXBean.CallSiteCount> hotCallSites(int n) {
+        final List<TimewarpMXBean.CallSiteCount> sites = new ArrayList<>();
+        for (Counter c : counters) {
+            if (c.callSite != null)
+                sites.add(new TimewarpMXBean.CallSiteCount(c.api, c.callSite, c.sum()));
+        }
+        Collections.sort(sites, new Comparator<TimewarpMXBean.CallSiteCount>() {
+            @Override
+            public int compare(TimewarpMXBean.CallSiteCount o1, TimewarpMXBean.CallSiteCount o2) {
+                return Long.compare(o2.getCount(), o1.getCount());
+            }
+        });
+        return new ArrayList<>(sites.subList(0, Math.min(n, sites.size())));
+    }
+
+    static void reset() {
+        for (Counter c : counters)
+            c.reset();
+    }
+
+    private static int stripes() {
+        final int n = Math.min(Runtime.getRuntime().availableProcessors(), 8);
+        return Integer.highestOneBit(n) == n ? n : Integer.highestOneBit(n) << 1;
+    }
+
+    private static final class Counter {
+        final String api;
+        final String callSite;
+        private final long[] cells = new long[STRIPES * PAD]; // each stripe in its own cache line
+
+        Counter(String api, String callSite) {
+            this.api = api;
+            this.callSite = callSite;
+        }
+
+        void increment() {
+            final long offset = BASE + (((int) Thread.currentThread().getId() & (STRIPES - 1)) * PAD << SHIFT);
+            long v;
+            do {
+                v = UNSAFE.getLongVolatile(cells, offset);
+            } while (!UNSAFE.compareAndSwapLong(cells, offset, v, v + 1));
+        }
+
+        long sum() {
+            long sum = 0;
+            for (int i = 0; i < STRIPES; i++)
+                sum += UNSAFE.getLongVolatile(cells, BASE + ((long) i * PAD << SHIFT));
+            return sum;
+        }
+
+        void reset() {
+            for (int i = 0; i < STRIPES; i++)
+                UNSAFE.putLongVolatile(cells, BASE + ((long) i * PAD << SHIFT), 0L);
+        }
+    }
+
+    private static final class MXBean implements TimewarpMXBean {
+        @Override
+        public Map<String, Long> getApiCounts() {
+            return apiCounts();
+        }
+
+        @Override
+        public boolean isCallSiteCounting() {
+            return callSiteCounting;
+        }
+
+        @Override
+        public List<CallSiteCount> getHotCallSites() {
+            return hotCallSites(HOT_CALL_SITES);
+        }
+
+        @Override
+        public List<CallSiteCount> hotCallSites(int n) {
+            return Metrics.hotCallSites(n);
+        }
+
+        @Override
+        public void reset() {
+            Metrics.reset();
+        }
+    }
+
+    private Metrics() {
+    }
+
+    // UNSAFE mechanics
+    private static final sun.misc.Unsafe UNSAFE;
+    private static final long BASE;
+    private static final int SHIFT;
+
+    static {
+        try {
+            UNSAFE = UtilUnsafe.getUnsafe();
+            BASE = UNSAFE.arrayBaseOffset(long[].class);
+            final int scale = UNSAFE.arrayIndexScale(long[].class);
+            if ((scale & (scale - 1)) != 0)
+                throw new Error("data type scale not a power of two");
+            SHIFT = 31 - Integer.numberOfLeadingZeros(scale);
+        } catch (Exception e) {
+            throw new Error(e);
+        }
+    }
+}
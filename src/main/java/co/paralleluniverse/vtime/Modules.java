@@ -0,0 +1,65 @@
+/*
+ * Copyright (c) 2015-2016, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are license under the terms of the
+ * MIT license.
+ */
+package co.paralleluniverse.vtime;
+
+import java.lang.instrument.Instrumentation;
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Adapts the JDK's modules (JDK 9+) for instrumentation, by reflection, as this library is compiled for Java 7.
+ *
+ * @author pron
+ */
+final class Modules {
+    private static final Method GET_MODULE = method(Class.class, "getModule");
+
+    /**
+     * Whether the JDK has modules.
+     */
+    static boolean isModular() {
+        return GET_MODULE != null;
+    }
+
+    /**
+     * Makes all modules in the boot layer -- {@code java.base} in particular -- read the module of the given class,
+     * so that instrumented JDK classes may call it. Named modules don't read the unnamed module otherwise.
+     *
+     * @param c a class in the boot class loader's unnamed module (i.e., on the bootstrap class path)
+     */
+    static void addReads(Instrumentation instrumentation, Class<?> c) {
+        try {
+            final Class<?> moduleClass = Class.forName("java.lang.Module");
+            final Class<?> layerClass = Class.forName("java.lang.ModuleLayer");
+            final Method isModifiableModule = Instrumentation.class.getMethod("isModifiableModule", moduleClass);
+            final Method redefineModule = Instrumentation.class.getMethod("redefineModule",
+                    moduleClass, Set.class, Map.class, Map.class, Set.class, Map.class);
+
+            final Set<Object> reads = Collections.singleton(GET_MODULE.invoke(c));
+            final Object bootLayer = layerClass.getMethod("boot").invoke(null);
+            for (Object module : (Set<?>) layerClass.getMethod("modules").invoke(bootLayer)) {
+                if ((Boolean) isModifiableModule.invoke(instrumentation, module))
+                    redefineModule.invoke(instrumentation, module, reads, Collections.emptyMap(), Collections.emptyMap(), Collections.emptySet(), Collections.emptyMap());
+            }
+        } catch (ReflectiveOperationException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static Method method(Class<?> c, String name, Class<?>... parameterTypes) {
+        try {
+            return c.getMethod(name, parameterTypes);
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    private Modules() {
+    }
+}
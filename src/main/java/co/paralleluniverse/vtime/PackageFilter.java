@@ -0,0 +1,158 @@
+/*
+ * Copyright (c) 2015-2016, Parallel Universe Software Co. All rights reserved.
+ * 
+ * This program and the accompanying materials are license under the terms of the
+ * MIT license.
+ */
+package co.paralleluniverse.vtime;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Decides which classes are instrumented based on include and exclude package prefixes.
+ * <p>
+ * A prefix, e.g. {@code com.example.foo}, matches the classes in the package and in all of its sub-packages.
+ * If several prefixes match a class, the longest one wins. A class matched by no prefix is instrumented, unless there
+ * are include prefixes, in which case only classes matched by an include prefix are instrumented.
+ * <p>
+ * The prefixes are kept in a trie, so that the decision takes time proportional to the length of the class name,
+ * regardless of the number of prefixes.
+ *
+ * @author pron
+ */
+final class PackageFilter {
+    private static final byte NONE = 0;
+    private static final byte INCLUDE = 1;
+    private static final byte EXCLUDE = 2;
+
+    private final Node root = new Node();
+    private boolean hasIncludes;
+
+    @Override
+    public String toString() {
+        return "PackageFilter{includes=" + hasIncludes + '}';
+    }
+
+    /**
+     * Adds prefixes separated by {@code ;} or {@code :}.
+     */
+    PackageFilter include(String prefixes) {
+        for (String prefix : split(prefixes))
+            add(prefix, INCLUDE);
+        return this;
+    }
+
+    /**
+     * Adds prefixes separated by {@code ;} or {@code :}.
+     */
+    PackageFilter exclude(String prefixes) {
+        for (String prefix : split(prefixes))
+            add(prefix, EXCLUDE);
+        return this;
+    }
+
+    /**
+     * Loads prefixes from a file with lines of the form {@code include PREFIX} or {@code exclude PREFIX}.
+     * Blank lines and lines starting with {@code #} are ignored.
+     */
+    PackageFilter load(Path file) throws IOException {
+        int lineNumber = 0;
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            lineNumber++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#"))
+                continue;
+            final String[] parts = line.split("\\s+");
+            if (parts.length != 2)
+                throw new IOException(file + ":" + lineNumber + ": expected 'include PREFIX' or 'exclude PREFIX'; was '" + line + "'");
+            switch (parts[0]) {
+                case "include":
+                    add(parts[1], INCLUDE);
+                    break;
+                case "exclude":
+                    add(parts[1], EXCLUDE);
+                    break;
+                default:
+                    throw new IOException(file + ":" + lineNumber + ": expected 'include PREFIX' or 'exclude PREFIX'; was '" + line + "'");
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Whether the given class is to be instrumented.
+     *
+     * @param className the class's internal name
+     */
+    boolean isIncluded(String className) {
+        byte rule = NONE;
+        Node node = root;
+        final int length = className.length();
+        for (int i = 0; node != null; i++) {
+            if (node.rule != NONE && (i == length || className.charAt(i) == '/'))
+                rule = node.rule;
+            if (i == length)
+                break;
+            node = node.child(className.charAt(i));
+        }
+        return rule == NONE ? !hasIncludes : rule == INCLUDE;
+    }
+
+    private void add(String prefix, byte rule) {
+        prefix = normalize(prefix);
+        if (prefix.isEmpty())
+            throw new IllegalArgumentException("Empty package prefix");
+        if (rule == INCLUDE)
+            hasIncludes = true;
+        Node node = root;
+        for (int i = 0; i < prefix.length(); i++)
+            node = node.addChild(prefix.charAt(i));
+        node.rule = rule;
+    }
+
+    private static String normalize(String prefix) {
+        prefix = prefix.trim();
+        if (prefix.endsWith(".**"))
+            prefix = prefix.substring(0, prefix.length() - 3);
+        else if (prefix.endsWith(".*"))
+            prefix = prefix.substring(0, prefix.length() - 2);
+        while (prefix.endsWith(".") || prefix.endsWith("/"))
+            prefix = prefix.substring(0, prefix.length() - 1);
+        return prefix.replace('.', '/');
+    }
+
+    private static String[] split(String prefixes) {
+        final String trimmed = prefixes.trim();
+        return trimmed.isEmpty() ? new String[0] : trimmed.split("\\s*[;:]\\s*");
+    }
+
+    private static final class Node {
+        private char[] chars = new char[0];
+        private Node[] children = new Node[0];
+        byte rule = NONE;
+
+        Node child(char c) {
+            for (int i = 0; i < chars.length; i++) {
+                if (chars[i] == c)
+                    return children[i];
+            }
+            return null;
+        }
+
+        Node addChild(char c) {
+            Node child = child(c);
+            if (child == null) {
+                child = new Node();
+                chars = Arrays.copyOf(chars, chars.length + 1);
+                children = Arrays.copyOf(children, children.length + 1);
+                chars[chars.length - 1] = c;
+                children[children.length - 1] = child;
+            }
+            return child;
+        }
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright (c) 2015-2016, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are license under the terms of the
+ * MIT license.
+ */
+package co.paralleluniverse.vtime;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.Condition;
+
+/**
+ * A clock that records the times read from another clock, and the durations of the timed sleeps, waits and parks,
+ * so that they can be replayed by a {@link ReplayClock}, e.g. to reproduce a timing-dependent bug.
+ * <p>
+ * Each thread records into its own log, a memory-mapped file in the given directory named after the thread, on which
+ * the times are delta-encoded into a few bytes each. Recording a call doesn't allocate, lock or make a system call,
+ * except when the thread first uses the clock, and creates its log. A log is a ring of the given size, so a long-running
+ * thread keeps only its most recent records; only logs that haven't wrapped around can be replayed.
+ * <p>
+ * Indefinite waits and parks are passed through unrecorded, as they don't depend on the time.
+ *
+ * @author pron
+ */
+public final class RecordingClock extends Clock implements Closeable {
+    /**
+     * The default size of each thread's log, in bytes.
+     */
+    public static final int DEFAULT_LOG_SIZE = 1 << 20;
+
+    private static final Object UNRECORDED = new Object();
+
+    private final Clock source;
+    private final Path dir;
+    private final int logSize;
+    private final ClockLog.Names names = new ClockLog.Names();
+    private final Queue<ClockLog> logs = new ConcurrentLinkedQueue<>();
+    private final ThreadLocal<Object> log = new ThreadLocal<>(); // the thread's ClockLog, or UNRECORDED
+
+    /**
+     * Constructs a {@code RecordingClock} of a given clock.
+     *
+     * @param source  the recorded clock
+     * @param dir     the directory in which the threads' logs are created
+     * @param logSize the size of each thread's log, in bytes
+     */
+    public RecordingClock(Clock source, Path dir, int logSize) throws IOException {
+        if (logSize < ClockLog.MAX_RECORD)
+            throw new IllegalArgumentException("logSize must be at least " + ClockLog.MAX_RECORD + "; was " + logSize);
+        this.source = source;
+        this.dir = Files.createDirectories(dir);
+        this.logSize = logSize;
+    }
+
+    /**
+     * Constructs a {@code RecordingClock} of the {@link SystemClock system clock}.
+     * <p>
+     * Same as calling {@link #RecordingClock(Clock, Path, int) RecordingClock(SystemClock.instance(), dir, DEFAULT_LOG_SIZE)}.
+     *
+     * @param dir the directory in which the threads' logs are created
+     */
+    public RecordingClock(Path dir) throws IOException {
+        this(SystemClock.instance(), dir, DEFAULT_LOG_SIZE);
+    }
+
+    @Override
+    public String toString() {
+        return "RecordingClock@" + Integer.toHexString(System.identityHashCode(this)) + "{source=" + source + " dir=" + dir + '}';
+    }
+
+    /**
+     * Writes all threads' logs to the storage device. The threads may continue recording.
+     */
+    @Override
+    public void close() {
+        for (ClockLog l : logs)
+            l.force();
+    }
+
+    /**
+     * Returns the current thread's log, or {@code null} if the thread's calls aren't recorded.
+     */
+    private ClockLog log() {
+        final Object l = log.get();
+        if (l instanceof ClockLog)
+            return (ClockLog) l;
+        return l == null ? create() : null;
+    }
+
+    private ClockLog create() {
+        log.set(UNRECORDED); // calls made while creating the log (e.g. by the JDK's file code) aren't recorded
+        try {
+            final ClockLog l = ClockLog.create(dir.resolve(names.next(Thread.currentThread())), logSize);
+            logs.add(l);
+            log.set(l);
+            return l;
+        } catch (IOException e) {
+            System.err.println("WARNING: Could not create a clock log for thread " + Thread.currentThread() + "; not recording it: " + e);
+            return null;
+        }
+    }
+
+    @Override
+    long System_currentTimeMillis() {
+        final long millis = source.System_currentTimeMillis();
+        final ClockLog l = log();
+        if (l != null) {
+            l.begin(ClockLog.CURRENT_TIME_MILLIS);
+            l.put(millis - l.lastMillis);
+            l.end();
+            l.lastMillis = millis;
+        }
+        return millis;
+    }
+
+    @Override
+    long System_nanoTime() {
+        final long nanos = source.System_nanoTime();
+        final ClockLog l = log();
+        if (l != null) {
+            l.begin(ClockLog.NANO_TIME);
+            l.put(nanos - l.lastNanos);
+            l.end();
+            l.lastNanos = nanos;
+        }
+        return nanos;
+    }
+
+    private void record(int tag, long duration) {
+        final ClockLog l = log();
+        if (l != null) {
+            l.begin(tag);
+            l.put(duration);
+            l.end();
+        }
+    }
+
+    @Override
+    void Object_wait(Object obj, long timeout) throws InterruptedException {
+        if (timeout > 0)
+            record(ClockLog.WAIT, timeout);
+        source.Object_wait(obj, timeout);
+    }
+
+    @Override
+    void Thread_sleep(long millis) throws InterruptedException {
+        if (millis > 0)
+            record(ClockLog.SLEEP, millis);
+        source.Thread_sleep(millis);
+    }
+
+    @Override
+    void Unsafe_park(sun.misc.Unsafe unsafe, boolean isAbsolute, long timeout) {
+        if (isAbsolute)
+            recordParkUntil(timeout);
+        else if (timeout > 0)
+            record(ClockLog.PARK_NANOS, timeout);
+        source.Unsafe_park(unsafe, isAbsolute, timeout);
+    }
+
+    @Override
+    void LockSupport_park(Object blocker) {
+        source.LockSupport_park(blocker);
+    }
+
+    @Override
+    void LockSupport_unpark(Thread thread) {
+        source.LockSupport_unpark(thread);
+    }
+
+    @Override
+    void LockSupport_parkNanos(Object blocker, long nanos) {
+        if (nanos > 0)
+            record(ClockLog.PARK_NANOS, nanos);
+        source.LockSupport_parkNanos(blocker, nanos);
+    }
+
+    @Override
+    void LockSupport_parkUntil(Object blocker, long deadline) {
+        recordParkUntil(deadline);
+        source.LockSupport_parkUntil(blocker, deadline);
+    }
+
+    private void recordParkUntil(long deadline) {
+        final ClockLog l = log();
+        if (l != null) {
+            l.begin(ClockLog.PARK_UNTIL);
+            l.put(deadline - l.lastMillis);
+            l.end();
+        }
+    }
+
+    @Override
+    long Condition_awaitNanos(Condition cond, long nanosTimeout) throws InterruptedException {
+        if (nanosTimeout <= 0)
+            return source.Condition_awaitNanos(cond, nanosTimeout);
+        final long left = source.Condition_awaitNanos(cond, nanosTimeout); // an interrupt isn't recorded, and so isn't replayed
+        final ClockLog l = log();
+        if (l != null) {
+            l.begin(ClockLog.AWAIT_NANOS);
+            l.put(nanosTimeout);
+            l.put(nanosTimeout - left);
+            l.end();
+        }
+        return left;
+    }
+}
@@ -0,0 +1,213 @@
+/*
+ * Copyright (c) 2015-2016, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are license under the terms of the
+ * MIT license.
+ */
+package co.paralleluniverse.vtime;
+
+import java.io.IOException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.concurrent.locks.Condition;
+
+/**
+ * A clock that replays the logs recorded by a {@link RecordingClock}: each thread, identified by its name, reads the same
+ * times that the thread of that name read when recording, and its timed sleeps, waits and parks return immediately,
+ * as they may spuriously, with the recorded outcome.
+ * <p>
+ * A replay reproduces the times each thread sees, not the threads' interleaving (for that, see
+ * {@link DeterministicScheduler}). Once a thread's calls diverge from its log -- e.g. a call the thread didn't make when
+ * recording, or a log that has ended -- a warning is printed, and the rest of the thread's calls go to the underlying
+ * clock. Threads with no log use the underlying clock from the start.
+ *
+ * @author pron
+ */
+public final class ReplayClock extends Clock {
+    private static final Object DIVERGED = new Object();
+
+    private final Clock source;
+    private final Path dir;
+    private final ClockLog.Names names = new ClockLog.Names();
+    private final ThreadLocal<Object> log = new ThreadLocal<>(); // the thread's ClockLog, or DIVERGED
+
+    /**
+     * Constructs a {@code ReplayClock} of a given clock.
+     *
+     * @param source the clock used by threads that have no log, or have diverged from it
+     * @param dir    the directory holding the threads' logs
+     */
+    public ReplayClock(Clock source, Path dir) {
+        this.source = source;
+        this.dir = dir;
+    }
+
+    /**
+     * Constructs a {@code ReplayClock} of the {@link SystemClock system clock}.
+     * <p>
+     * Same as calling {@link #ReplayClock(Clock, Path) ReplayClock(SystemClock.instance(), dir)}.
+     *
+     * @param dir the directory holding the threads' logs
+     */
+    public ReplayClock(Path dir) {
+        this(SystemClock.instance(), dir);
+    }
+
+    @Override
+    public String toString() {
+        return "ReplayClock@" + Integer.toHexString(System.identityHashCode(this)) + "{source=" + source + " dir=" + dir + '}';
+    }
+
+    /**
+     * Returns the current thread's log, positioned after the next record's tag, if it has the given tag;
+     * otherwise, returns {@code null}, and the thread's calls go to the underlying clock.
+     */
+    private ClockLog next(int tag) {
+        Object o = log.get();
+        if (o == null)
+            o = open();
+        if (o == DIVERGED)
+            return null;
+        final ClockLog l = (ClockLog) o;
+        final long offset = l.offset();
+        final int t = l.next();
+        if (t == tag)
+            return l;
+        diverged(l, offset, t < 0 ? "the log has ended" : "expected record " + t + " but the call is " + tag);
+        return null;
+    }
+
+    private Object open() {
+        log.set(DIVERGED); // calls made while opening the log (e.g. by the JDK's file code) aren't replayed
+        Path file = null;
+        try {
+            file = dir.resolve(names.next(Thread.currentThread()));
+            final ClockLog l = ClockLog.open(file);
+            log.set(l);
+            return l;
+        } catch (NoSuchFileException e) {
+            return DIVERGED;
+        } catch (IOException e) {
+            System.err.println("WARNING: Could not replay the clock log " + file + " of thread " + Thread.currentThread() + ": " + e);
+            return DIVERGED;
+        }
+    }
+
+    private void diverged(ClockLog l, long offset, String reason) {
+        log.set(DIVERGED);
+        System.err.println("WARNING: Thread " + Thread.currentThread() + " has diverged from its clock log " + l.file()
+                + " at offset " + offset + ": " + reason + "; using " + source + " from now on");
+    }
+
+    /**
+     * Reads an argument recorded with the current call, and checks that it's the same.
+     */
+    private boolean matches(ClockLog l, long offset, long recorded, long actual) {
+        if (recorded == actual)
+            return true;
+        diverged(l, offset, "recorded " + recorded + " but the call has " + actual);
+        return false;
+    }
+
+    @Override
+    long System_currentTimeMillis() {
+        final ClockLog l = next(ClockLog.CURRENT_TIME_MILLIS);
+        if (l == null)
+            return source.System_currentTimeMillis();
+        return l.lastMillis += l.get();
+    }
+
+    @Override
+    long System_nanoTime() {
+        final ClockLog l = next(ClockLog.NANO_TIME);
+        if (l == null)
+            return source.System_nanoTime();
+        return l.lastNanos += l.get();
+    }
+
+    /**
+     * Replays a timed sleep, wait or park.
+     *
+     * @return {@code true} if the call has been replayed; {@code false} if it should go to the underlying clock
+     */
+    private boolean replay(int tag, long duration) {
+        final ClockLog l = next(tag);
+        if (l == null)
+            return false;
+        final long offset = l.offset() - 1;
+        return matches(l, offset, l.get(), duration);
+    }
+
+    @Override
+    void Object_wait(Object obj, long timeout) throws InterruptedException {
+        if (timeout > 0 && replay(ClockLog.WAIT, timeout)) {
+            if (!Thread.holdsLock(obj))
+                throw new IllegalMonitorStateException();
+            if (Thread.interrupted())
+                throw new InterruptedException();
+        } else
+            source.Object_wait(obj, timeout);
+    }
+
+    @Override
+    void Thread_sleep(long millis) throws InterruptedException {
+        if (millis > 0 && replay(ClockLog.SLEEP, millis)) {
+            if (Thread.interrupted())
+                throw new InterruptedException("sleep interrupted");
+        } else
+            source.Thread_sleep(millis);
+    }
+
+    @Override
+    void Unsafe_park(sun.misc.Unsafe unsafe, boolean isAbsolute, long timeout) {
+        if (isAbsolute ? !replayParkUntil(timeout) : (timeout <= 0 || !replay(ClockLog.PARK_NANOS, timeout)))
+            source.Unsafe_park(unsafe, isAbsolute, timeout);
+    }
+
+    @Override
+    void LockSupport_park(Object blocker) {
+        source.LockSupport_park(blocker);
+    }
+
+    @Override
+    void LockSupport_unpark(Thread thread) {
+        source.LockSupport_unpark(thread);
+    }
+
+    @Override
+    void LockSupport_parkNanos(Object blocker, long nanos) {
+        if (nanos > 0 && !replay(ClockLog.PARK_NANOS, nanos))
+            source.LockSupport_parkNanos(blocker, nanos);
+    }
+
+    @Override
+    void LockSupport_parkUntil(Object blocker, long deadline) {
+        if (!replayParkUntil(deadline))
+            source.LockSupport_parkUntil(blocker, deadline);
+    }
+
+    private boolean replayParkUntil(long deadline) {
+        final ClockLog l = next(ClockLog.PARK_UNTIL);
+        if (l == null)
+            return false;
+        final long offset = l.offset() - 1;
+        return matches(l, offset, l.lastMillis + l.get(), deadline);
+    }
+
+    @Override
+    long Condition_awaitNanos(Condition cond, long nanosTimeout) throws InterruptedException {
+        if (nanosTimeout <= 0)
+            return source.Condition_awaitNanos(cond, nanosTimeout);
+        if (Thread.interrupted())
+            throw new InterruptedException();
+        final ClockLog l = next(ClockLog.AWAIT_NANOS);
+        if (l == null)
+            return source.Condition_awaitNanos(cond, nanosTimeout);
+        final long offset = l.offset() - 1;
+        if (!matches(l, offset, l.get(), nanosTimeout))
+            return source.Condition_awaitNanos(cond, nanosTimeout);
+        final long left = nanosTimeout - l.get();
+        cond.awaitNanos(0); // checks that the lock is held, and releases and reacquires it, as the recorded await did
+        return left;
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2015-2016, Parallel Universe Software Co. All rights reserved.
+ * 
+ * This program and the accompanying materials are license under the terms of the
+ * MIT license.
+ */
+package co.paralleluniverse.vtime;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.instrument.Instrumentation;
+import java.util.ArrayList;
+import java.util.List;
+import org.objectweb.asm.ClassReader;
+
+/**
+ * Retransforms classes that were loaded before the agent was installed and that call any of the intercepted methods.
+ * <p>
+ * Classes are retransformed in small batches on a background thread, so that each retransformation -- which
+ * brings the JVM to a safepoint -- stalls application threads only briefly.
+ *
+ * @author pron
+ */
+final class Retransformer implements Runnable {
+    private final Instrumentation instrumentation;
+    private final ASMClassFileTransformer transformer;
+    private final int batchSize;
+
+    Retransformer(Instrumentation instrumentation, ASMClassFileTransformer transformer, int batchSize) {
+        if (batchSize <= 0)
+            throw new IllegalArgumentException("batchSize must be positive; was " + batchSize);
+        this.instrumentation = instrumentation;
+        this.transformer = transformer;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Retransforms the classes on a new daemon thread.
+     */
+    void start() {
+        final Thread thread = new Thread(this, "timewarp-retransformer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public void run() {
+        final List<Class<?>> candidates = candidates();
+        int retransformed = 0;
+        for (int i = 0; i < candidates.size(); i += batchSize) {
+            final List<Class<?>> batch = candidates.subList(i, Math.min(i + batchSize, candidates.size()));
+            retransformed += retransform(batch);
+            Thread.yield();
+        }
+        System.err.println("NOTE: VIRTUAL TIME RETRANSFORMED " + retransformed + " LOADED CLASSES");
+    }
+
+    private List<Class<?>> candidates() {
+        final List<Class<?>> candidates = new ArrayList<>();
+        for (Class<?> c : instrumentation.getAllLoadedClasses()) {
+            if (c.isArray() || c.isPrimitive() || !instrumentation.isModifiableClass(c))
+                continue;
+            final String className = c.getName().replace('.', '/');
+            if (transformer.filter(c.getClassLoader(), className))
+                continue;
+            final byte[] classfile = classfile(c, className);
+            if (classfile != null && transformer.needsInstrumentation(new ClassReader(classfile)))
+                candidates.add(c);
+        }
+        return candidates;
+    }
+
+    private int retransform(List<Class<?>> batch) {
+        try {
+            instrumentation.retransformClasses(batch.toArray(new Class<?>[batch.size()]));
+            return batch.size();
+        } catch (Throwable t) {
+            if (batch.size() == 1) {
+                System.err.println("WARNING: Could not retransform " + batch.get(0).getName() + ": " + t);
+                return 0;
+            }
+            int retransformed = 0; // retry one by one so that a single failure doesn't fail the whole batch
+            for (int i = 0; i < batch.size(); i++)
+                retransformed += retransform(batch.subList(i, i + 1));
+            return retransformed;
+        }
+    }
+
+    private static byte[] classfile(Class<?> c, String className) {
+        try (InputStream is = c.getResourceAsStream('/' + className + ".class")) {
+            if (is == null)
+                return null; // e.g. a generated class
+            final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            final byte[] buf = new byte[8192];
+            for (int n; (n = is.read(buf)) > 0;)
+                baos.write(buf, 0, n);
+            return baos.toByteArray();
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+}
@@ -6,13 +6,28 @@
  */
 package co.paralleluniverse.vtime;
 
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.concurrent.locks.Condition;
+
 /**
  * A clock providing scaled time (slowed down or sped up) relative to another clock.
+ * <p>
+ * The scale and its inverse are kept as 64.64 fixed-point numbers, so converting between the source clock's time and
+ * this clock's time is done in integer arithmetic, which is exact for all scales {@literal >=} 2<sup>-12</sup>, and
+ * monotonic.
+ *
  * @author pron
  */
 public final class ScaledClock extends Clock {
+    private static final BigInteger ONE = BigInteger.ONE.shiftLeft(64); // 1.0 in 64.64 fixed-point
+
     private final Clock source;
     private final double scale;
+    private final long scaleHi;   // the scale's integer part
+    private final long scaleLo;   // the scale's fractional part (unsigned)
+    private final long inverseHi; // the inverse scale's integer part
+    private final long inverseLo; // the inverse scale's fractional part (unsigned)
 
     private final long startTime;
     private final long startNanos;
@@ -30,6 +45,17 @@ public final class ScaledClock extends Clock {
         this.source = source;
         this.scale = scale;
 
+        final BigInteger fixed = new BigDecimal(scale).multiply(new BigDecimal(ONE)).toBigInteger(); // exact for the double's value
+        if (fixed.signum() == 0 || fixed.bitLength() > 127)
+            throw new IllegalArgumentException("Scale out of range: " + scale);
+        final BigInteger inverse = ONE.multiply(ONE).add(fixed).subtract(BigInteger.ONE).divide(fixed); // rounded up, so that whole results are exact
+        if (inverse.bitLength() > 127)
+            throw new IllegalArgumentException("Scale out of range: " + scale);
+        this.scaleHi = fixed.shiftRight(64).longValue();
+        this.scaleLo = fixed.longValue();
+        this.inverseHi = inverse.shiftRight(64).longValue();
+        this.inverseLo = inverse.longValue();
+
         this.startTime = source.currentTimeMillis();
         this.startNanos = source.nanoTime();
     }
@@ -54,22 +80,22 @@ public final class ScaledClock extends Clock {
 
     @Override
     long System_currentTimeMillis() {
-        return startTime + (long) ((source.System_currentTimeMillis() - startTime) * scale);
+        return startTime + scale(source.System_currentTimeMillis() - startTime);
     }
 
     @Override
     long System_nanoTime() {
-        return startNanos + (long) ((source.System_nanoTime() - startNanos) * scale); // we use startNanos just to keep the scaled number smaller
+        return startNanos + scale(source.System_nanoTime() - startNanos); // we use startNanos just to keep the scaled number smaller
     }
 
     @Override
     void Object_wait(Object obj, long timeout) throws InterruptedException {
-        source.Object_wait(obj, (long) (timeout / scale));
+        source.Object_wait(obj, timeout <= 0 ? timeout : Math.max(1, unscale(timeout))); // a timeout of 0 would wait forever
     }
 
     @Override
     void Thread_sleep(long millis) throws InterruptedException {
-        source.Thread_sleep((long) (millis / scale));
+        source.Thread_sleep(unscale(millis));
     }
 
     @Override
@@ -79,8 +105,76 @@ public final class ScaledClock extends Clock {
             return;
         }
         if (!isAbsolute)
-            source.Unsafe_park(unsafe, isAbsolute, (long) (timeout / scale));
+            source.Unsafe_park(unsafe, isAbsolute, Math.max(1, unscale(timeout))); // a timeout of 0 would park forever
         else
-            source.Unsafe_park(unsafe, isAbsolute, source.currentTimeMillis() + (long) ((timeout - currentTimeMillis()) / scale));
+            source.Unsafe_park(unsafe, isAbsolute, source.currentTimeMillis() + unscale(timeout - currentTimeMillis()));
+    }
+
+    @Override
+    void LockSupport_park(Object blocker) {
+        source.LockSupport_park(blocker);
+    }
+
+    @Override
+    void LockSupport_unpark(Thread thread) {
+        source.LockSupport_unpark(thread);
+    }
+
+    @Override
+    void LockSupport_parkNanos(Object blocker, long nanos) {
+        if (nanos <= 0)
+            return;
+        source.LockSupport_parkNanos(blocker, Math.max(1, unscale(nanos)));
+    }
+
+    @Override
+    void LockSupport_parkUntil(Object blocker, long deadline) {
+        source.LockSupport_parkUntil(blocker, source.currentTimeMillis() + unscale(deadline - currentTimeMillis()));
+    }
+
+    @Override
+    long Condition_awaitNanos(Condition cond, long nanosTimeout) throws InterruptedException {
+        if (nanosTimeout <= 0)
+            return cond.awaitNanos(nanosTimeout);
+        return scale(source.Condition_awaitNanos(cond, Math.max(1, unscale(nanosTimeout))));
+    }
+
+    /**
+     * Converts a duration of the source clock to this clock's, rounding down.
+     */
+    private long scale(long duration) {
+        return multiply(duration, scaleHi, scaleLo);
+    }
+
+    /**
+     * Converts a duration of this clock to the source clock's, rounding down.
+     * As the inverse scale is rounded up, the result may be one more than the exact value only if that is within
+     * {@code duration / 2^64} of the next integer.
+     */
+    private long unscale(long duration) {
+        return multiply(duration, inverseHi, inverseLo);
+    }
+
+    /**
+     * Returns {@code floor(x * (hi + lo / 2^64))}, where {@code lo} is unsigned.
+     */
+    static long multiply(long x, long hi, long lo) {
+        return x * hi + multiplyHigh(x, lo) + ((lo >> 63) & x); // the last term corrects multiplyHigh for an unsigned lo
+    }
+
+    /**
+     * Returns the high 64 bits of the signed 128-bit product of {@code x} and {@code y}, like Java 9's {@code Math.multiplyHigh}.
+     */
+    static long multiplyHigh(long x, long y) {
+        final long x1 = x >> 32;
+        final long x2 = x & 0xFFFFFFFFL;
+        final long y1 = y >> 32;
+        final long y2 = y & 0xFFFFFFFFL;
+
+        final long z2 = x2 * y2;
+        final long t = x1 * y2 + (z2 >>> 32);
+        final long z1 = (t & 0xFFFFFFFFL) + x2 * y1;
+        final long z0 = t >> 32;
+        return x1 * y1 + z0 + (z1 >> 32);
     }
 }
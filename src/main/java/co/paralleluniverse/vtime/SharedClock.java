@@ -0,0 +1,332 @@
+/*
+ * Copyright (c) 2015-2016, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are license under the terms of the
+ * MIT license.
+ */
+package co.paralleluniverse.vtime;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+
+/**
+ * A manual clock shared by all JVMs on the host that open the same file, so that several processes -- e.g. the service,
+ * broker and client of an integration test -- follow one virtual timeline.
+ * <p>
+ * The clock's time lives in the memory-mapped file, where it's read with plain loads, and is changed by
+ * {@link #advance(long, TimeUnit) advance} and {@link #advanceTo(long, TimeUnit) advanceTo}, usually called by a single
+ * controller process. Sleeps, waits and parks are managed by a {@link ManualClock} in each JVM, which follows the shared
+ * time: whenever the time is advanced, the advancing process rings each JVM that has the clock open with a one-byte
+ * datagram on the loopback interface, and that JVM's watcher thread then wakes its expired waiters. The ports of the
+ * JVMs are registered in the file, which has room for {@value #SLOTS} open clocks.
+ * <p>
+ * A clock should be {@link #close() closed} when no longer used, to stop its watcher thread and free its slot;
+ * a clock's slot is also freed when its JVM shuts down, but the slots of processes that were killed are only freed when
+ * the file is recreated.
+ *
+ * @author pron
+ */
+public final class SharedClock extends Clock implements Closeable {
+    static final int SLOTS = 64;
+    private static final int MAGIC = 0x54575343; // "TWSC"
+    private static final int VERSION = 1;
+    // file layout (native byte order)
+    private static final int MAGIC_OFFSET = 0;
+    private static final int VERSION_OFFSET = 4;
+    private static final int START_TIME_OFFSET = 8;
+    private static final int NANOS_OFFSET = 16;
+    private static final int SLOTS_OFFSET = 64; // a port per open clock; 0 if free
+    private static final int SIZE = SLOTS_OFFSET + 4 * SLOTS;
+
+    private final Path file;
+    private final MappedByteBuffer buffer; // keeps the mapping alive
+    private final long address;
+    private final long startTime;
+    private final ManualClock local; // this JVM's waiters
+    private final DatagramChannel channel;
+    private final InetSocketAddress[] addresses = new InetSocketAddress[SLOTS]; // cached by slot; guarded by this
+    private final int slot;
+    private final int port;
+    private final Thread unregister; // frees the slot on shutdown
+
+    /**
+     * Opens the shared clock in the given file, creating it if it doesn't exist.
+     *
+     * @param file      the file holding the clock
+     * @param startTime the initial time which will be returned by {@code System.currentTimeMillis()},
+     *                  if this call creates the clock.
+     */
+    public SharedClock(Path file, long startTime) throws IOException {
+        if (startTime < 0)
+            throw new IllegalArgumentException("startTime must be >= 0; was " + startTime);
+        this.file = file;
+        try (FileChannel fc = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            final FileLock lock = fc.lock(); // against concurrent initialization by other processes
+            try {
+                this.buffer = fc.map(FileChannel.MapMode.READ_WRITE, 0, SIZE);
+                this.address = UNSAFE.getLong(buffer, ADDRESS);
+                if (UNSAFE.getIntVolatile(null, address + MAGIC_OFFSET) != MAGIC) {
+                    UNSAFE.setMemory(address, SIZE, (byte) 0);
+                    UNSAFE.putLong(address + START_TIME_OFFSET, startTime);
+                    UNSAFE.putInt(address + VERSION_OFFSET, VERSION);
+                    UNSAFE.putIntVolatile(null, address + MAGIC_OFFSET, MAGIC);
+                } else if (UNSAFE.getInt(address + VERSION_OFFSET) != VERSION)
+                    throw new IOException("Unsupported shared clock version " + UNSAFE.getInt(address + VERSION_OFFSET) + " in " + file);
+            } finally {
+                lock.release();
+            }
+        }
+        this.startTime = UNSAFE.getLong(address + START_TIME_OFFSET);
+        this.local = new ManualClock(startTime);
+        this.channel = DatagramChannel.open();
+        channel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        this.port = ((InetSocketAddress) channel.getLocalAddress()).getPort();
+        this.slot = register(port);
+        this.unregister = new Thread("timewarp-shared-clock-shutdown") {
+            @Override
+            public void run() {
+                unregister();
+            }
+        };
+        Runtime.getRuntime().addShutdownHook(unregister);
+        sync();
+        new Watcher(this).start();
+    }
+
+    /**
+     * Opens the shared clock in the given file, creating it if it doesn't exist.
+     * <p>
+     * Same as {@link #SharedClock(Path, long) SharedClock(file, System.currentTimeMillis())}.
+     */
+    public SharedClock(Path file) throws IOException {
+        this(file, System.currentTimeMillis());
+    }
+
+    @Override
+    public String toString() {
+        return "SharedClock@" + Integer.toHexString(System.identityHashCode(this)) + "{file=" + file + " startTime=" + startTime + " nanos=" + sharedNanos() + '}';
+    }
+
+    /**
+     * Advances this clock's time, in all processes, by the given duration.
+     *
+     * @param duration the time duration
+     * @param unit     the time duration's unit
+     */
+    public void advance(long duration, TimeUnit unit) {
+        if (duration <= 0)
+            throw new IllegalArgumentException("Duration must be positive; was " + duration);
+        final long delta = unit.toNanos(duration);
+
+        long current;
+        do {
+            current = sharedNanos();
+        } while (!UNSAFE.compareAndSwapLong(null, address + NANOS_OFFSET, current, current + delta));
+
+        advanced();
+    }
+
+    /**
+     * Advances this clock's time, in all processes, to the given time, as returned by {@link #nanoTime() nanoTime}.
+     * If the clock's time is already at or past the given time, this method does nothing, so this clock never goes back in time.
+     *
+     * @param time the time
+     * @param unit the time's unit
+     */
+    public void advanceTo(long time, TimeUnit unit) {
+        final long target = unit.toNanos(time);
+
+        long current;
+        do {
+            current = sharedNanos();
+            if (target <= current)
+                return;
+        } while (!UNSAFE.compareAndSwapLong(null, address + NANOS_OFFSET, current, target));
+
+        advanced();
+    }
+
+    /**
+     * Stops following the shared time in this JVM, and frees this clock's slot.
+     * The time can still be read, but no longer wakes this JVM's waiters.
+     */
+    @Override
+    public void close() throws IOException {
+        if (channel.isOpen()) {
+            unregister();
+            try {
+                Runtime.getRuntime().removeShutdownHook(unregister);
+            } catch (IllegalStateException e) {
+                // shutting down
+            }
+            channel.close(); // stops the watcher
+        }
+    }
+
+    private void unregister() {
+        UNSAFE.compareAndSwapInt(null, slotAddress(slot), port, 0);
+    }
+
+    private long sharedNanos() {
+        return UNSAFE.getLongVolatile(null, address + NANOS_OFFSET);
+    }
+
+    private long slotAddress(int i) {
+        return address + SLOTS_OFFSET + 4L * i;
+    }
+
+    private int register(int port) throws IOException {
+        for (int i = 0; i < SLOTS; i++) {
+            if (UNSAFE.compareAndSwapInt(null, slotAddress(i), 0, port))
+                return i;
+        }
+        channel.close();
+        throw new IOException("All " + SLOTS + " slots of the shared clock in " + file + " are taken");
+    }
+
+    /**
+     * Brings this JVM's waiters up to the shared time.
+     */
+    private void sync() {
+        local.advanceTo(sharedNanos(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Called after the shared time has been advanced by this process; wakes the waiters in this and all other processes.
+     */
+    private void advanced() {
+        sync();
+        synchronized (this) {
+            final ByteBuffer bell = ByteBuffer.allocate(1);
+            for (int i = 0; i < SLOTS; i++) {
+                final int p = UNSAFE.getIntVolatile(null, slotAddress(i));
+                if (p == 0 || i == slot)
+                    continue;
+                InetSocketAddress a = addresses[i];
+                if (a == null || a.getPort() != p)
+                    addresses[i] = a = new InetSocketAddress(InetAddress.getLoopbackAddress(), p);
+                bell.clear();
+                try {
+                    channel.send(bell, a);
+                } catch (IOException e) {
+                    System.err.println("WARNING: Shared clock " + file + " could not notify port " + p + ": " + e);
+                }
+            }
+        }
+    }
+
+    @Override
+    long System_currentTimeMillis() {
+        return startTime + TimeUnit.NANOSECONDS.toMillis(sharedNanos());
+    }
+
+    @Override
+    long System_nanoTime() {
+        return sharedNanos();
+    }
+
+    @Override
+    long epochNanos() {
+        return startTime * 1000000L + sharedNanos();
+    }
+
+    // Timed operations first bring the local clock up to the shared time, so that their deadlines are relative to it.
+    @Override
+    void Object_wait(Object obj, long timeout) throws InterruptedException {
+        sync();
+        local.Object_wait(obj, timeout);
+    }
+
+    @Override
+    void Thread_sleep(long millis) throws InterruptedException {
+        sync();
+        local.Thread_sleep(millis);
+    }
+
+    @Override
+    void Unsafe_park(sun.misc.Unsafe unsafe, boolean isAbsolute, long timeout) {
+        sync();
+        local.Unsafe_park(unsafe, isAbsolute, timeout);
+    }
+
+    @Override
+    void LockSupport_park(Object blocker) {
+        local.LockSupport_park(blocker);
+    }
+
+    @Override
+    void LockSupport_unpark(Thread thread) {
+        local.LockSupport_unpark(thread);
+    }
+
+    @Override
+    void LockSupport_parkNanos(Object blocker, long nanos) {
+        sync();
+        local.LockSupport_parkNanos(blocker, nanos);
+    }
+
+    @Override
+    void LockSupport_parkUntil(Object blocker, long deadline) {
+        sync();
+        local.LockSupport_parkUntil(blocker, deadline);
+    }
+
+    @Override
+    long Condition_awaitNanos(Condition cond, long nanosTimeout) throws InterruptedException {
+        sync();
+        return local.Condition_awaitNanos(cond, nanosTimeout);
+    }
+
+    /**
+     * Wakes this JVM's waiters whenever another process advances the shared time.
+     */
+    private static final class Watcher extends Thread {
+        private final SharedClock clock;
+
+        Watcher(SharedClock clock) {
+            super("timewarp-shared-clock");
+            setDaemon(true);
+            this.clock = clock;
+        }
+
+        @Override
+        public void run() {
+            final ByteBuffer bell = ByteBuffer.allocate(1);
+            try {
+                for (;;) {
+                    bell.clear();
+                    clock.channel.receive(bell);
+                    clock.sync(); // reads the latest time, so rings that were lost or coalesced don't matter
+                }
+            } catch (ClosedChannelException e) {
+                // closed
+            } catch (IOException e) {
+                System.err.println("WARNING: Shared clock " + clock.file + " stopped following the shared time: " + e);
+            }
+        }
+    }
+
+    private static final sun.misc.Unsafe UNSAFE = UtilUnsafe.getUnsafe();
+    private static final long ADDRESS; // the offset of a direct buffer's address
+
+    static {
+        try {
+            ADDRESS = UNSAFE.objectFieldOffset(Buffer.class.getDeclaredField("address"));
+        } catch (NoSuchFieldException e) {
+            throw new AssertionError(e);
+        }
+    }
+}
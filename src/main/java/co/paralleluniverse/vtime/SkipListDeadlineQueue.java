@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2015-2016, Parallel Universe Software Co. All rights reserved.
+ * 
+ * This program and the accompanying materials are license under the terms of the
+ * MIT license.
+ */
+package co.paralleluniverse.vtime;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A lock-free {@link DeadlineQueue} backed by a {@link ConcurrentSkipListPriorityQueue}.
+ * Insertion takes {@code O(log n)}.
+ * <p>
+ * Cancelled entries are left in the queue as tombstones, and are discarded when they reach its head, or when the
+ * tombstones outnumber the live entries, at which point the queue is swept.
+ *
+ * @author pron
+ */
+final class SkipListDeadlineQueue<E extends Deadline> implements DeadlineQueue<E> {
+    private static final int MIN_SWEEP = 1024;
+
+    private final ConcurrentSkipListPriorityQueue<E> queue = new ConcurrentSkipListPriorityQueue<>();
+    private final AtomicLong seq = new AtomicLong();
+    private final AtomicInteger size = new AtomicInteger(); // including tombstones
+    private final AtomicInteger tombstones = new AtomicInteger();
+    private final AtomicBoolean sweeping = new AtomicBoolean();
+
+    @Override
+    public String toString() {
+        return "SkipListDeadlineQueue{size=" + size + " tombstones=" + tombstones + '}';
+    }
+
+    @Override
+    public void add(E e) {
+        if (e.seq == 0)
+            e.seq = seq.incrementAndGet(); // makes the ordering total, so that remove removes e and no other entry
+        size.incrementAndGet();
+        queue.add(e);
+    }
+
+    @Override
+    public boolean remove(E e) {
+        final int t = tombstones.incrementAndGet();
+        if (t > MIN_SWEEP && t > size.get() / 2 && sweeping.compareAndSet(false, true)) {
+            try {
+                for (E x : queue) {
+                    if (x.isCancelled() && queue.remove(x))
+                        discarded();
+                }
+            } finally {
+                sweeping.set(false);
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public E pollExpired(long now) {
+        for (;;) {
+            E e = queue.peek();
+            if (e == null || e.deadline > now)
+                return null;
+            e = queue.poll();
+            if (e == null)
+                return null;
+            if (e.deadline > now) { // another thread has taken the expired entries
+                queue.add(e);
+                return null;
+            }
+            if (e.isCancelled()) {
+                discarded();
+                continue;
+            }
+            size.decrementAndGet();
+            return e;
+        }
+    }
+
+    @Override
+    public long nextDeadline() {
+        for (;;) {
+            final E e = queue.peek();
+            if (e == null)
+                return -1;
+            if (!e.isCancelled())
+                return e.deadline;
+            if (queue.remove(e))
+                discarded();
+        }
+    }
+
+    private void discarded() {
+        size.decrementAndGet();
+        tombstones.decrementAndGet();
+    }
+}
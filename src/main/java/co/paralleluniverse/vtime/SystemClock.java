@@ -6,6 +6,9 @@
  */
 package co.paralleluniverse.vtime;
 
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+
 /**
  * The system clock.
  * This clock provides "real" time, as perceived by this running JVM.
@@ -51,4 +54,29 @@ public final class SystemClock extends Clock {
     void Unsafe_park(sun.misc.Unsafe unsafe, boolean isAbsolute, long timeout) {
         park(unsafe, isAbsolute, timeout);
     }
+
+    @Override
+    void LockSupport_park(Object blocker) {
+        LockSupport.park(blocker);
+    }
+
+    @Override
+    void LockSupport_unpark(Thread thread) {
+        LockSupport.unpark(thread);
+    }
+
+    @Override
+    void LockSupport_parkNanos(Object blocker, long nanos) {
+        LockSupport.parkNanos(blocker, nanos);
+    }
+
+    @Override
+    void LockSupport_parkUntil(Object blocker, long deadline) {
+        LockSupport.parkUntil(blocker, deadline);
+    }
+
+    @Override
+    long Condition_awaitNanos(Condition cond, long nanosTimeout) throws InterruptedException {
+        return cond.awaitNanos(nanosTimeout);
+    }
 }
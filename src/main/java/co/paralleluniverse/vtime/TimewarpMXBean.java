@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2015-2016, Parallel Universe Software Co. All rights reserved.
+ *
+ * This program and the accompanying materials are license under the terms of the
+ * MIT license.
+ */
+package co.paralleluniverse.vtime;
+
+import java.beans.ConstructorProperties;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Exposes the call counts collected by the agent's {@code metrics} option.
+ * Registered as {@code co.paralleluniverse:type=Timewarp}.
+ *
+ * @author pron
+ */
+public interface TimewarpMXBean {
+    /**
+     * The number of calls to each intercepted method, by the name of its trampoline in {@link Clock_} or {@link JavaTime_}
+     * (or, for the {@code now} factories of the {@code java.time} types, {@code Type_now}).
+     */
+    Map<String, Long> getApiCounts();
+
+    /**
+     * Whether calls are counted per call site ({@code metrics=sites}), or only per intercepted method.
+     */
+    boolean isCallSiteCounting();
+
+    /**
+     * The 20 call sites with the most calls.
+     */
+    List<CallSiteCount> getHotCallSites();
+
+    /**
+     * The {@code n} call sites with the most calls.
+     */
+    List<CallSiteCount> hotCallSites(int n);
+
+    /**
+     * Zeroes all counts.
+     */
+    void reset();
+
+    /**
+     * The number of calls made at a call site.
+     */
+    final class CallSiteCount {
+        private final String api;
+        private final String callSite;
+        private final long count;
+
+        @ConstructorProperties({"api", "callSite", "count"})
+        public CallSiteCount(String api, String callSite, long count) {
+            this.api = api;
+            this.callSite = callSite;
+            this.count = count;
+        }
+
+        /**
+         * The name of the called method, as in {@link TimewarpMXBean#getApiCounts() getApiCounts}.
+         */
+        public String getApi() {
+            return api;
+        }
+
+        /**
+         * The call site, as {@code class.method(line)}.
+         */
+        public String getCallSite() {
+            return callSite;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        @Override
+        public String toString() {
+            return callSite + " " + api + ": " + count;
+        }
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright (c) 2015-2016, Parallel Universe Software Co. All rights reserved.
+ * 
+ * This program and the accompanying materials are license under the terms of the
+ * MIT license.
+ */
+package co.paralleluniverse.vtime;
+
+/**
+ * A {@link DeadlineQueue} implemented as a hierarchical timing wheel, with {@code O(1)} insertion and expiration.
+ * <p>
+ * The wheel has a level for every {@value #BITS} bits of the (63-bit) deadline, each with {@value #SLOTS} slots.
+ * An entry is placed at the level of the highest bit in which its deadline differs from the wheel's current time,
+ * in the slot given by the deadline's bits at that level. When the wheel's time advances, the slots it passes expire
+ * whole, and the entries in the slot it lands on are cascaded to lower levels; each entry is therefore moved at most
+ * once per level over its lifetime. Slots are intrusive doubly-linked lists of entries, and each level keeps a
+ * bitmap of its non-empty slots, so no time is spent on empty slots. Every entry records its position, so
+ * {@link #remove(Deadline) removal} takes {@code O(1)} as well.
+ * <p>
+ * The wheel is guarded by its monitor, which is only held for constant time by {@link #add(Deadline) add}.
+ *
+ * @author pron
+ */
+final class TimingWheel<E extends Deadline> implements DeadlineQueue<E> {
+    private static final int BITS = 6;
+    private static final int SLOTS = 1 << BITS;
+    private static final int LEVELS = (63 + BITS - 1) / BITS;
+    private static final int NONE = -1;
+    private static final int EXPIRED = LEVELS * SLOTS;
+
+    private final Deadline[][] slots = new Deadline[LEVELS][SLOTS];
+    private final long[] occupied = new long[LEVELS];
+    private Deadline expired; // a stack of expired entries
+    private long now;
+    private int size;
+
+    /**
+     * @param now the wheel's initial time
+     */
+    TimingWheel(long now) {
+        this.now = now;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "TimingWheel{now=" + now + " size=" + size + '}';
+    }
+
+    @Override
+    public synchronized void add(E e) {
+        size++;
+        if (e.deadline <= now)
+            pushExpired(e);
+        else
+            place(e);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public synchronized E pollExpired(long now) {
+        if (now > this.now)
+            advance(now);
+        final Deadline e = expired;
+        if (e == null)
+            return null;
+        unlink(e);
+        return (E) e;
+    }
+
+    @Override
+    public synchronized boolean remove(E e) {
+        if (e.position == NONE) // already taken by pollExpired
+            return false;
+        unlink(e);
+        return true;
+    }
+
+    /**
+     * The earliest deadline is found in the lowest occupied slot of the lowest non-empty level, as each level's slots
+     * cover consecutive, increasing time ranges, all later than those of the levels below it.
+     */
+    @Override
+    public synchronized long nextDeadline() {
+        long min = -1;
+        for (Deadline e = expired; e != null; e = e.next) {
+            if (min < 0 || e.deadline < min)
+                min = e.deadline;
+        }
+        if (min >= 0)
+            return min;
+        for (int level = 0; level < LEVELS; level++) {
+            if (occupied[level] != 0) {
+                for (Deadline e = slots[level][Long.numberOfTrailingZeros(occupied[level])]; e != null; e = e.next) {
+                    if (min < 0 || e.deadline < min)
+                        min = e.deadline;
+                }
+                return min;
+            }
+        }
+        return -1;
+    }
+
+    private void advance(long newNow) {
+        final long oldNow = now;
+        now = newNow;
+
+        // newNow and oldNow agree on all bits above level h
+        final int h = level(oldNow ^ newNow);
+        for (int level = 0; level < h; level++) { // all of these entries are due before newNow
+            for (long bits = occupied[level]; bits != 0; bits &= bits - 1)
+                expireSlot(level, Long.numberOfTrailingZeros(bits));
+        }
+
+        final int oldSlot = slot(oldNow, h);
+        final int newSlot = slot(newNow, h);
+        // all entries at level h are in slots > oldSlot; those < newSlot are due
+        final long passed = (-1L << (oldSlot + 1)) & ~(-1L << newSlot);
+        for (long bits = occupied[h] & passed; bits != 0; bits &= bits - 1)
+            expireSlot(h, Long.numberOfTrailingZeros(bits));
+
+        // cascade the entries in newSlot
+        Deadline e = takeSlot(h, newSlot);
+        while (e != null) {
+            final Deadline next = e.next;
+            e.next = null;
+            if (e.deadline <= newNow)
+                pushExpired(e);
+            else
+                place(e);
+            e = next;
+        }
+    }
+
+    private void place(Deadline e) {
+        final int level = level(e.deadline ^ now);
+        final int slot = slot(e.deadline, level);
+        final Deadline head = slots[level][slot];
+        e.prev = null;
+        e.next = head;
+        if (head != null)
+            head.prev = e;
+        slots[level][slot] = e;
+        occupied[level] |= 1L << slot;
+        e.position = level * SLOTS + slot;
+    }
+
+    private void expireSlot(int level, int slot) {
+        Deadline e = takeSlot(level, slot);
+        while (e != null) {
+            final Deadline next = e.next;
+            pushExpired(e);
+            e = next;
+        }
+    }
+
+    private Deadline takeSlot(int level, int slot) {
+        final Deadline head = slots[level][slot];
+        slots[level][slot] = null;
+        occupied[level] &= ~(1L << slot);
+        return head;
+    }
+
+    private void pushExpired(Deadline e) {
+        final Deadline head = expired;
+        e.prev = null;
+        e.next = head;
+        if (head != null)
+            head.prev = e;
+        expired = e;
+        e.position = EXPIRED;
+    }
+
+    private void unlink(Deadline e) {
+        final Deadline prev = e.prev;
+        final Deadline next = e.next;
+        if (next != null)
+            next.prev = prev;
+        if (prev != null)
+            prev.next = next;
+        else if (e.position == EXPIRED)
+            expired = next;
+        else {
+            final int level = e.position / SLOTS;
+            final int slot = e.position % SLOTS;
+            slots[level][slot] = next;
+            if (next == null)
+                occupied[level] &= ~(1L << slot);
+        }
+        e.next = null;
+        e.prev = null;
+        e.position = NONE;
+        size--;
+    }
+
+    private static int level(long diff) {
+        return (63 - Long.numberOfLeadingZeros(diff)) / BITS;
+    }
+
+    private static int slot(long time, int level) {
+        return (int) (time >>> (level * BITS)) & (SLOTS - 1);
+    }
+}
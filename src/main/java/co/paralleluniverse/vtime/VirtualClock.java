@@ -12,17 +12,37 @@ package co.paralleluniverse.vtime;
  * @author pron
  */
 public final class VirtualClock {
-    private static Clock gClock; // lowest priority note that this isn't volatile
+    private static volatile Clock gClock = SystemClock.instance(); // lowest priority
     private static final InheritableThreadLocal<Clock> itlClock = new InheritableThreadLocal<>(); // medium priority
     private static final ThreadLocal<Clock> tlClock = new ThreadLocal<>(); // highest priority
 
+    // Until a thread-scoped clock is first set, get() reads gClock and doesn't touch any ThreadLocal.
+    // Afterwards, each thread caches its resolved clock, which is invalidated whenever the global clock changes
+    // (by bumping generation) or when the thread sets its own clocks.
+    private static volatile boolean threadClocks;
+    private static volatile long generation = 1;
+    private static final ThreadLocal<Resolved> resolved = new ThreadLocal<Resolved>() {
+        @Override
+        protected Resolved initialValue() {
+            return new Resolved();
+        }
+    };
+
+    private static final class Resolved {
+        Clock clock;
+        long generation; // 0 means invalid
+    }
+
     /**
      * Puts the given clock in effect for the all threads,
      * unless overridden by {@link #setForCurrentThread(Clock) setForCurrentThread}
      * or by {@link #setForCurrentThreadAndChildren(Clock) setForCurrentThreadAndChildren}.
+     * Passing {@code null} restores the {@link SystemClock system clock}.
      */
-    public static void setGlobal(Clock clock) {
-        gClock = clock;
+    public static synchronized void setGlobal(Clock clock) {
+        gClock = clock != null ? clock : SystemClock.instance();
+        generation++;
+        ClockLinker.update(isDormant());
     }
 
     /**
@@ -31,6 +51,7 @@ public final class VirtualClock {
      */
     public static void setForCurrentThreadAndChildren(Clock clock) {
         itlClock.set(clock);
+        threadClockSet(clock);
     }
 
     /**
@@ -38,6 +59,7 @@ public final class VirtualClock {
      */
     public static void setForCurrentThread(Clock clock) {
         tlClock.set(clock);
+        threadClockSet(clock);
     }
 
     /**
@@ -65,16 +87,66 @@ public final class VirtualClock {
      * Returns the clock currently in effect for the current thread.
      */
     public static Clock get() {
+        if (!threadClocks)
+            return gClock;
+
+        final Resolved r = resolved.get();
+        final long gen = generation; // read before resolving so that a concurrent setGlobal invalidates the result
+        if (r.generation != gen) {
+            r.clock = resolve();
+            r.generation = gen;
+        }
+        return r.clock;
+    }
+
+    /**
+     * Puts the given clock in effect for the current thread, as {@link #setForCurrentThread(Clock) setForCurrentThread}
+     * does, and returns the clock previously set by it, or {@code null} if none.
+     * Doesn't allocate, unless this thread has never set a clock before.
+     */
+    static Clock swapForCurrentThread(Clock clock) {
+        final Clock previous = tlClock.get();
+        if (clock != previous) {
+            tlClock.set(clock);
+            threadClockSet(clock);
+        }
+        return previous;
+    }
+
+    /**
+     * Whether a thread-scoped clock has ever been set. If not, the global clock is in effect for all threads.
+     */
+    static boolean hasThreadClocks() {
+        return threadClocks;
+    }
+
+    private static Clock resolve() {
         Clock clock = tlClock.get();
         if (clock == null)
             clock = itlClock.get();
         if (clock == null)
             clock = gClock;
-        if (clock == null)
-            clock = SystemClock.instance();
         return clock;
     }
 
+    /**
+     * Whether virtual time is dormant, i.e., the system clock is in effect for all threads.
+     */
+    static boolean isDormant() {
+        return !threadClocks && gClock == SystemClock.instance();
+    }
+
+    private static void threadClockSet(Clock clock) {
+        if (clock != null && !threadClocks) {
+            synchronized (VirtualClock.class) {
+                threadClocks = true;
+                ClockLinker.update(false);
+            }
+        }
+        if (threadClocks)
+            resolved.get().generation = 0;
+    }
+
     private VirtualClock() {
     }
 }
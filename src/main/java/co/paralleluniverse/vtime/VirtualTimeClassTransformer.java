@@ -6,72 +6,360 @@
  */
 package co.paralleluniverse.vtime;
 
+import java.lang.invoke.CallSite;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.Label;
 import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.Type;
 
 /**
+ * Rewrites calls to the JDK's time-related methods into calls to the {@link Clock_} trampolines.
+ * <p>
+ * Calls to the {@code java.time} system clocks are rewritten into calls to the {@link JavaTime_} trampolines, and
+ * calls to the {@code now()} and {@code now(zone)} factories of the {@code java.time} types into calls to their
+ * {@code now(clock)} factory, with the clock obtained from {@code JavaTime_}.
+ * <p>
+ * In indy mode, the calls are rewritten into {@code invokedynamic} call sites linked by {@link ClockLinker}, which
+ * call the original JDK methods directly while virtual time is dormant. Classes older than Java 7, which can't contain
+ * {@code invokedynamic}, are always rewritten to call the trampolines.
+ * <p>
+ * Classes loaded by a class loader bound to a {@link ClockDomain} are rewritten to call the {@link Domain_} trampolines
+ * (and the domain variants of the {@code JavaTime_} trampolines), passing them the domain's id; this is never done with
+ * {@code invokedynamic}.
+ * <p>
+ * When {@link #enableMetrics(boolean) metrics} are enabled, each rewritten call is preceded by a call to
+ * {@link Metrics#hit(int) Metrics.hit} with the id of its counter.
  *
  * @author pron
  */
 public class VirtualTimeClassTransformer extends ASMClassFileTransformer {
     private static final String PACKAGE = Clock_.class.getPackage().getName().replace('.', '/');
     private static final String CLOCK = Type.getInternalName(Clock_.class);
+    private static final String METRICS = Type.getInternalName(Metrics.class);
+    private static final String DOMAIN = Type.getInternalName(Domain_.class);
+    private static final String JAVA_TIME = PACKAGE + "/JavaTime_"; // not JavaTime_.class, which requires Java 8
+    private static final Handle BOOTSTRAP = new Handle(Opcodes.H_INVOKESTATIC, Type.getInternalName(ClockLinker.class), "bootstrap",
+            MethodType.methodType(CallSite.class, MethodHandles.Lookup.class, String.class, MethodType.class).toMethodDescriptorString(), false);
+
+    private static final int VERSION = 9; // increment whenever the rewriting changes
+    private static final String JAVA_TIME_CLOCK = "Ljava/time/Clock;";
+    private static final String ZONE_ID = "Ljava/time/ZoneId;";
+    private static final String LOCK_SUPPORT = "java/util/concurrent/locks/LockSupport";
+    private static final String JDK_UNSAFE = "jdk/internal/misc/Unsafe"; // LockSupport's Unsafe since JDK 9
+    /**
+     * The JDK classes implementing the operations the clocks delegate to (e.g. {@code SystemClock} calls
+     * {@code Thread.sleep} and {@code Condition.awaitNanos}), which must therefore run on real time.
+     */
+    private static final Set<String> JDK_PRIMITIVES = new HashSet<>(Arrays.asList(
+            "java/lang/Object",
+            "java/lang/Thread",
+            "java/lang/VirtualThread",
+            "sun/misc/Unsafe",
+            JDK_UNSAFE,
+            LOCK_SUPPORT,
+            "java/util/concurrent/locks/AbstractQueuedSynchronizer$ConditionObject",
+            "java/util/concurrent/locks/AbstractQueuedLongSynchronizer$ConditionObject"));
+    private static final int CONSTANT_Methodref = 10;
+    private static final int CONSTANT_InterfaceMethodref = 11;
+    private final boolean indy;
+    private final PackageFilter packages;
+    private final boolean bootstrap;
+    private boolean metrics;
+    private boolean callSiteMetrics;
+
+    /**
+     * Creates a transformer that rewrites time calls into calls to the {@link Clock_} trampolines.
+     */
+    public VirtualTimeClassTransformer() {
+        this(false);
+    }
+
+    /**
+     * Creates a transformer.
+     *
+     * @param indy whether time calls should be rewritten into {@code invokedynamic} call sites
+     */
+    public VirtualTimeClassTransformer(boolean indy) {
+        this(indy, null);
+    }
+
+    /**
+     * Creates a transformer.
+     *
+     * @param indy     whether time calls should be rewritten into {@code invokedynamic} call sites
+     * @param packages the classes to instrument, or {@code null} for all
+     */
+    VirtualTimeClassTransformer(boolean indy, PackageFilter packages) {
+        this(indy, packages, true);
+    }
+
+    /**
+     * Creates a transformer.
+     *
+     * @param indy      whether time calls should be rewritten into {@code invokedynamic} call sites
+     * @param packages  the classes to instrument, or {@code null} for all
+     * @param bootstrap whether to instrument classes loaded by the bootstrap class loader, which can only link to
+     *                  {@link Clock_} if it's on the bootstrap class path
+     */
+    VirtualTimeClassTransformer(boolean indy, PackageFilter packages, boolean bootstrap) {
+        this.indy = indy;
+        this.packages = packages;
+        this.bootstrap = bootstrap;
+    }
+
+    /**
+     * Makes the rewritten calls count themselves in {@link Metrics}. Must be called before the cache is enabled.
+     *
+     * @param callSites whether calls are counted per call site, rather than only per intercepted method
+     */
+    void enableMetrics(boolean callSites) {
+        this.metrics = true;
+        this.callSiteMetrics = callSites;
+    }
+
+    @Override
+    protected String version() {
+        return super.version() + ':' + VERSION + (indy ? ":indy" : "") + (callSiteMetrics ? ":sites" : metrics ? ":metrics" : "");
+    }
 
     @Override
-    protected boolean filter(String className) {
-        return className == null || className.startsWith(PACKAGE);
+    protected boolean filter(ClassLoader loader, String className) {
+        return className == null || (loader == null && !bootstrap) || className.startsWith(PACKAGE) || JDK_PRIMITIVES.contains(className)
+                || (packages != null && !packages.isIncluded(className));
     }
 
+    /**
+     * Scans the constant pool for references to any of the intercepted methods, so that classes that don't call them
+     * are left alone without being parsed.
+     */
     @Override
-    protected ClassVisitor createVisitor(ClassVisitor next) {
-        return new ClassVisitor(Opcodes.ASM5, next) {
+    protected boolean needsInstrumentation(ClassReader cr) {
+        final char[] buf = new char[cr.getMaxStringLength()];
+        final boolean javaTime = rewritesJavaTime(cr.getClassName());
+        for (int i = 1; i < cr.getItemCount(); i++) {
+            final int offset = cr.getItem(i);
+            if (offset == 0)
+                continue; // the second slot of a long or a double
+            final int tag = cr.readByte(offset - 1);
+            if (tag == CONSTANT_Methodref || tag == CONSTANT_InterfaceMethodref) {
+                final int nameAndType = cr.getItem(cr.readUnsignedShort(offset + 2));
+                if (isIntercepted(cr.readClass(offset, buf), cr.readUTF8(nameAndType, buf), cr.readUTF8(nameAndType + 2, buf), javaTime))
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    protected String variant(ClassLoader loader) {
+        final ClockDomain domain = ClockDomain.of(loader);
+        return domain != null ? "domain=" + domain.id : null;
+    }
+
+    @Override
+    protected ClassVisitor createVisitor(ClassLoader loader, ClassReader cr, ClassVisitor next) {
+        final boolean javaTime = rewritesJavaTime(cr.getClassName());
+        final Set<String> instrumented = instrumentedMethods(cr, javaTime);
+        final ClockDomain domain = ClockDomain.of(loader);
+        return new ClassVisitor(Opcodes.ASM7, next) {
+            private boolean useIndy;
+            private String className;
+
+            @Override
+            public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+                useIndy = indy && domain == null && (version & 0xFFFF) >= Opcodes.V1_7;
+                className = name;
+                super.visit(version, access, name, signature, superName, interfaces);
+            }
+
             @Override
-            public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
-                return new MethodVisitor(api, super.visitMethod(access, name, desc, signature, exceptions)) {
+            public MethodVisitor visitMethod(int access, final String methodName, String methodDesc, String signature, String[] exceptions) {
+                final MethodVisitor mv = super.visitMethod(access, methodName, methodDesc, signature, exceptions);
+                if (!instrumented.contains(methodName + methodDesc))
+                    return mv; // returning the ClassWriter's own visitor lets ASM copy the method verbatim
+                return new MethodVisitor(api, mv) {
+                    private int line = -1;
+
+                    @Override
+                    public void visitLineNumber(int line, Label start) {
+                        this.line = line;
+                        super.visitLineNumber(line, start);
+                    }
+
                     @Override
                     public void visitMethodInsn(int opcode, String owner, String name, String desc, boolean itf) {
-                        if (!captureTimeCall(owner, name, desc))
+                        final String clockMethod = clockMethod(owner, name, desc);
+                        if (clockMethod != null) {
+                            if (metrics)
+                                count(clockMethod);
+                            callClockMethod(clockMethod, opcode == Opcodes.INVOKESTATIC ? desc : instanceToStatic(owner, desc));
+                        } else if (javaTime && isJavaTimeClock(owner, name, desc)) {
+                            if (metrics)
+                                count("Clock_" + name);
+                            callJavaTime("Clock_" + name, desc);
+                        } else if (javaTime && isJavaTimeNow(owner, name, desc)) {
+                            if (metrics)
+                                count(owner.substring(owner.lastIndexOf('/') + 1) + "_now");
+                            if (desc.startsWith("()")) // Instant.now() uses the UTC clock; all others the default zone's
+                                callJavaTime("java/time/Instant".equals(owner) ? "Clock_systemUTC" : "Clock_systemDefaultZone", "()" + JAVA_TIME_CLOCK);
+                            else
+                                callJavaTime("Clock_system", "(" + ZONE_ID + ")" + JAVA_TIME_CLOCK);
+                            super.visitMethodInsn(Opcodes.INVOKESTATIC, owner, "now", "(" + JAVA_TIME_CLOCK + ")L" + owner + ";", false);
+                        } else
                             super.visitMethodInsn(opcode, owner, name, desc, itf);
                     }
 
-                    private boolean captureTimeCall(String owner, String name, String desc) {
-                        switch (owner) {
-                            case "java/lang/Object":
-                                if ("wait".equals(name) && !desc.startsWith("()"))
-                                    return callClockMethod("Object_wait", instanceToStatic(owner, desc));
-                                break;
-                            case "java/lang/System":
-                                switch (name) {
-                                    case "nanoTime":
-                                        return callClockMethod("System_nanoTime", desc);
-                                    case "currentTimeMillis":
-                                        return callClockMethod("System_currentTimeMillis", desc);
-                                }
-                                break;
-                            case "java/lang/Thread":
-                                if ("sleep".equals(name))
-                                    return callClockMethod("Thread_sleep", desc);
-                                break;
-                            case "sun/misc/Unsafe":
-                                if ("park".equals(name))
-                                    return callClockMethod("Unsafe_park", instanceToStatic(owner, desc));
-                                break;
-                        }
-                        return false;
+                    @Override
+                    public void visitMaxs(int maxStack, int maxLocals) {
+                        super.visitMaxs(maxStack + 1, maxLocals); // the counter's id, the domain's id, or the clock passed to a now factory
+                    }
+
+                    private void count(String clockMethod) {
+                        final String callSite = callSiteMetrics ? className.replace('/', '.') + '.' + methodName + '(' + line + ')' : null;
+                        super.visitLdcInsn(Metrics.counter(clockMethod, callSite));
+                        super.visitMethodInsn(Opcodes.INVOKESTATIC, METRICS, "hit", "(I)V", false);
+                    }
+
+                    private void callClockMethod(String name, String desc) {
+                        if (domain != null)
+                            callInDomain(DOMAIN, name, desc);
+                        else if (useIndy)
+                            super.visitInvokeDynamicInsn(name, desc, BOOTSTRAP);
+                        else
+                            super.visitMethodInsn(Opcodes.INVOKESTATIC, CLOCK, name, desc, false);
                     }
 
-                    private boolean callClockMethod(String name, String desc) {
-                        super.visitMethodInsn(Opcodes.INVOKESTATIC, CLOCK, name, desc, false);
-                        return true;
+                    private void callJavaTime(String name, String desc) {
+                        if (domain != null)
+                            callInDomain(JAVA_TIME, name, desc);
+                        else
+                            super.visitMethodInsn(Opcodes.INVOKESTATIC, JAVA_TIME, name, desc, false);
+                    }
+
+                    /**
+                     * Calls the trampoline taking the domain's id as an additional, last, argument.
+                     */
+                    private void callInDomain(String owner, String name, String desc) {
+                        super.visitLdcInsn(domain.id);
+                        final int params = desc.indexOf(')');
+                        super.visitMethodInsn(Opcodes.INVOKESTATIC, owner, name, desc.substring(0, params) + 'I' + desc.substring(params), false);
                     }
 
                     private String instanceToStatic(String owner, String desc) {
+                        if (JDK_UNSAFE.equals(owner))
+                            owner = "java/lang/Object"; // inaccessible to Clock_
                         return "(L" + owner + ";" + desc.substring(1);
                     }
                 };
             }
         };
     }
+
+    /**
+     * Returns the names and descriptors of the methods that call any of the intercepted methods.
+     */
+    private static Set<String> instrumentedMethods(ClassReader cr, final boolean javaTime) {
+        final Set<String> methods = new HashSet<>();
+        cr.accept(new ClassVisitor(Opcodes.ASM7) {
+            @Override
+            public MethodVisitor visitMethod(int access, final String name, final String desc, String signature, String[] exceptions) {
+                return new MethodVisitor(api) {
+                    @Override
+                    public void visitMethodInsn(int opcode, String owner, String mname, String mdesc, boolean itf) {
+                        if (isIntercepted(owner, mname, mdesc, javaTime))
+                            methods.add(name + desc);
+                    }
+                };
+            }
+        }, ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+        return methods;
+    }
+
+    private static boolean isIntercepted(String owner, String name, String desc, boolean javaTime) {
+        return clockMethod(owner, name, desc) != null || javaTime && (isJavaTimeClock(owner, name, desc) || isJavaTimeNow(owner, name, desc));
+    }
+
+    /**
+     * Whether the given class's calls to the {@code java.time} system clocks and {@code now} factories are rewritten.
+     * Those made by {@code java.time} itself aren't, as the {@code JavaTime_} clocks call {@code java.time} (e.g.
+     * {@code Instant.now()}, which, before JDK 17, calls {@code Clock.systemUTC()}), and rewriting them would recurse.
+     */
+    private static boolean rewritesJavaTime(String className) {
+        return !className.startsWith("java/time/");
+    }
+
+    /**
+     * Whether the given method is one of {@code java.time.Clock}'s system clock factories, replaced by the {@link JavaTime_}
+     * method of the same name prefixed by {@code Clock_}.
+     */
+    static boolean isJavaTimeClock(String owner, String name, String desc) {
+        return "java/time/Clock".equals(owner)
+                && (("systemUTC".equals(name) || "systemDefaultZone".equals(name)) && desc.equals("()" + JAVA_TIME_CLOCK)
+                || "system".equals(name) && desc.equals("(" + ZONE_ID + ")" + JAVA_TIME_CLOCK));
+    }
+
+    /**
+     * Whether the given method is the {@code now()} or {@code now(ZoneId)} factory of a {@code java.time} type, all of
+     * which have a {@code now(Clock)} counterpart.
+     */
+    static boolean isJavaTimeNow(String owner, String name, String desc) {
+        return "now".equals(name) && owner.startsWith("java/time/")
+                && (desc.equals("()L" + owner + ';') || desc.equals("(" + ZONE_ID + ")L" + owner + ';'));
+    }
+
+    /**
+     * Returns the name of the {@link Clock_} method replacing the given method, or {@code null} if the method isn't intercepted.
+     */
+    static String clockMethod(String owner, String name, String desc) {
+        switch (owner) {
+            case "java/lang/Object":
+                if ("wait".equals(name) && !desc.startsWith("()"))
+                    return "Object_wait";
+                break;
+            case "java/lang/System":
+                switch (name) {
+                    case "nanoTime":
+                        return "System_nanoTime";
+                    case "currentTimeMillis":
+                        return "System_currentTimeMillis";
+                }
+                break;
+            case "java/lang/Thread":
+                if ("sleep".equals(name) && (desc.equals("(J)V") || desc.equals("(JI)V")))
+                    return "Thread_sleep";
+                break;
+            case "sun/misc/Unsafe":
+            case JDK_UNSAFE:
+                if ("park".equals(name))
+                    return "Unsafe_park";
+                break;
+            case LOCK_SUPPORT:
+                switch (name) {
+                    case "park":
+                        return "LockSupport_park";
+                    case "unpark":
+                        return "LockSupport_unpark";
+                    case "parkNanos":
+                        return "LockSupport_parkNanos";
+                    case "parkUntil":
+                        return "LockSupport_parkUntil";
+                }
+                break;
+            case "java/util/concurrent/locks/Condition":
+                if ("awaitNanos".equals(name))
+                    return "Condition_awaitNanos";
+                if ("await".equals(name) && !desc.startsWith("()"))
+                    return "Condition_await";
+                break;
+        }
+        return null;
+    }
 }
@@ -0,0 +1,250 @@
+/*
+ * Copyright (c) 2015-2016, Parallel Universe Software Co. All rights reserved.
+ * 
+ * This program and the accompanying materials are license under the terms of the
+ * MIT license.
+ */
+package co.paralleluniverse.vtime;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Instruments jars or class directories ahead of time, so that virtual time can be used without the Java agent.
+ * <p>
+ * Usage: {@code java -cp timewarp.jar co.paralleluniverse.vtime.Weaver [-indy] [-threads N] [-include PREFIXES] [-exclude PREFIXES] [-filterFile FILE] INPUT OUTPUT [INPUT OUTPUT ...]},
+ * where each {@code INPUT} is a jar or a directory of classes, and the corresponding {@code OUTPUT} is the woven jar or directory.
+ * Each output contains a {@value #MANIFEST} entry listing the classes that were changed.
+ * The filter options have the same meaning as the agent's (see {@link PackageFilter}).
+ * <p>
+ * Woven classes only require the timewarp jar on their class path (and not ASM, which is only used by the weaver).
+ * Note that signatures of signed jars are removed, as they are invalidated by weaving.
+ *
+ * @author pron
+ */
+public final class Weaver {
+    /**
+     * The name of the entry listing the woven classes in each output.
+     */
+    public static final String MANIFEST = "META-INF/timewarp/woven-classes";
+
+    private final VirtualTimeClassTransformer transformer;
+    private final ExecutorService executor;
+
+    public static void main(String[] args) throws Exception {
+        boolean indy = false;
+        final PackageFilter packages = new PackageFilter();
+        boolean filtered = false;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int i = 0;
+        for (; i < args.length && args[i].startsWith("-"); i++) {
+            switch (args[i]) {
+                case "-indy":
+                    indy = true;
+                    break;
+                case "-threads":
+                    threads = Integer.parseInt(args[++i]);
+                    break;
+                case "-include":
+                    packages.include(args[++i]);
+                    filtered = true;
+                    break;
+                case "-exclude":
+                    packages.exclude(args[++i]);
+                    filtered = true;
+                    break;
+                case "-filterFile":
+                    packages.load(Paths.get(args[++i]));
+                    filtered = true;
+                    break;
+                default:
+                    usage("Unknown option " + args[i]);
+            }
+        }
+        if (i == args.length || (args.length - i) % 2 != 0)
+            usage(null);
+
+        final Weaver weaver = new Weaver(new VirtualTimeClassTransformer(indy, filtered ? packages : null), threads);
+        try {
+            for (; i < args.length; i += 2) {
+                final Path in = Paths.get(args[i]);
+                final Path out = Paths.get(args[i + 1]);
+                final List<String> woven = weaver.weave(in, out);
+                System.err.println("Wove " + woven.size() + " classes from " + in + " into " + out);
+            }
+        } finally {
+            weaver.shutdown();
+        }
+    }
+
+    private static void usage(String error) {
+        if (error != null)
+            System.err.println(error);
+        System.err.println("Usage: " + Weaver.class.getName() + " [-indy] [-threads N] [-include PREFIXES] [-exclude PREFIXES] [-filterFile FILE] INPUT OUTPUT [INPUT OUTPUT ...]");
+        System.exit(1);
+    }
+
+    Weaver(VirtualTimeClassTransformer transformer, int threads) {
+        this.transformer = transformer;
+        this.executor = Executors.newFixedThreadPool(threads);
+    }
+
+    void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * Weaves a jar or a class directory.
+     *
+     * @return the names of the classes that were changed
+     */
+    List<String> weave(Path in, Path out) throws IOException, InterruptedException {
+        if (in.toAbsolutePath().normalize().equals(out.toAbsolutePath().normalize()))
+            throw new IllegalArgumentException("Input and output must differ: " + in);
+        return Files.isDirectory(in) ? weaveDirectory(in, out) : weaveJar(in, out);
+    }
+
+    private List<String> weaveJar(Path in, Path out) throws IOException, InterruptedException {
+        try (ZipFile zip = new ZipFile(in.toFile())) {
+            final List<ZipEntry> entries = new ArrayList<>();
+            final List<Future<byte[]>> results = new ArrayList<>();
+            for (Enumeration<? extends ZipEntry> e = zip.entries(); e.hasMoreElements();) {
+                final ZipEntry entry = e.nextElement();
+                if (isSignature(entry.getName()) || entry.getName().equals(MANIFEST))
+                    continue;
+                entries.add(entry);
+                results.add(entry.getName().endsWith(".class") ? executor.submit(weaveTask(entry.getName(), read(zip, entry))) : null);
+            }
+
+            final List<String> woven = new ArrayList<>();
+            if (out.getParent() != null)
+                Files.createDirectories(out.getParent());
+            try (ZipOutputStream zos = new ZipOutputStream(Files.newOutputStream(out))) {
+                for (int i = 0; i < entries.size(); i++) {
+                    final ZipEntry entry = entries.get(i);
+                    byte[] bytes = get(results.get(i));
+                    if (bytes != null)
+                        woven.add(className(entry.getName()));
+                    else if (!entry.isDirectory())
+                        bytes = read(zip, entry);
+
+                    final ZipEntry newEntry = new ZipEntry(entry.getName());
+                    newEntry.setTime(entry.getTime());
+                    zos.putNextEntry(newEntry);
+                    if (bytes != null)
+                        zos.write(bytes);
+                    zos.closeEntry();
+                }
+                zos.putNextEntry(new ZipEntry(MANIFEST));
+                writeManifest(woven, zos);
+                zos.closeEntry();
+            }
+            return woven;
+        }
+    }
+
+    private List<String> weaveDirectory(final Path in, final Path out) throws IOException, InterruptedException {
+        final List<Path> files = new ArrayList<>();
+        final List<Future<byte[]>> results = new ArrayList<>();
+        Files.walkFileTree(in, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                final String name = in.relativize(file).toString().replace(file.getFileSystem().getSeparator(), "/");
+                files.add(file);
+                results.add(name.endsWith(".class") ? executor.submit(weaveTask(name, Files.readAllBytes(file))) : null);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+
+        final List<String> woven = new ArrayList<>();
+        for (int i = 0; i < files.size(); i++) {
+            final Path file = files.get(i);
+            final Path target = out.resolve(in.relativize(file).toString());
+            Files.createDirectories(target.getParent());
+            final byte[] bytes = get(results.get(i));
+            if (bytes != null) {
+                woven.add(className(in.relativize(file).toString().replace(file.getFileSystem().getSeparator(), "/")));
+                Files.write(target, bytes);
+            } else
+                Files.copy(file, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        final Path manifest = out.resolve(MANIFEST);
+        Files.createDirectories(manifest.getParent());
+        try (OutputStream os = Files.newOutputStream(manifest)) {
+            writeManifest(woven, os);
+        }
+        return woven;
+    }
+
+    private Callable<byte[]> weaveTask(final String fileName, final byte[] classfile) {
+        return new Callable<byte[]>() {
+            @Override
+            public byte[] call() throws Exception {
+                return transformer.transform(null, className(fileName), null, null, classfile);
+            }
+        };
+    }
+
+    private static byte[] get(Future<byte[]> result) throws IOException, InterruptedException {
+        if (result == null)
+            return null;
+        try {
+            return result.get();
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+    }
+
+    private static void writeManifest(List<String> woven, OutputStream os) {
+        Collections.sort(woven);
+        final PrintWriter pw = new PrintWriter(new OutputStreamWriter(os, StandardCharsets.UTF_8));
+        for (String className : woven)
+            pw.println(className);
+        pw.flush();
+    }
+
+    private static String className(String fileName) {
+        return fileName.substring(0, fileName.length() - ".class".length());
+    }
+
+    private static boolean isSignature(String name) {
+        if (!name.startsWith("META-INF/") || name.indexOf('/', "META-INF/".length()) >= 0)
+            return false;
+        return name.endsWith(".SF") || name.endsWith(".RSA") || name.endsWith(".DSA") || name.endsWith(".EC");
+    }
+
+    private static byte[] read(ZipFile zip, ZipEntry entry) throws IOException {
+        try (InputStream is = zip.getInputStream(entry)) {
+            final ByteArrayOutputStream baos = new ByteArrayOutputStream(entry.getSize() > 0 ? (int) entry.getSize() : 4096);
+            final byte[] buf = new byte[8192];
+            for (int n; (n = is.read(buf)) > 0;)
+                baos.write(buf, 0, n);
+            return baos.toByteArray();
+        }
+    }
+}